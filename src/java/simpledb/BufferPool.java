@@ -2,9 +2,14 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -28,22 +33,127 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Number of partitions of the page table. */
+    private static final int NUM_STRIPES = 16;
+
+    /** Hits are handed to the replacement policy in batches of this size. */
+    private static final int HIT_DRAIN_THRESHOLD = 64;
+
+    /** Hits beyond this many undrained ones are not recorded at all. */
+    private static final int MAX_PENDING_HITS = 1024;
+
+    /** The background writer checks the pool at least this often, in ms. */
+    private static final long WRITER_INTERVAL = 50;
+
+    /** How long a miss waits for the background writer to clean a frame, in ms. */
+    private static final long WRITER_WAIT = 1000;
+
+    /** Most pages a sequential scan reads ahead by default. */
+    private static final int DEFAULT_READ_AHEAD = 8;
+
+    /**
+     * A slot of the pool. The frame's monitor is its latch: it guards pid and
+     * page, and threads that find the frame while its page is still being
+     * read from disk wait on it.
+     */
+    private static class Frame {
+        final int index;
+        // the page held or being read into this frame, null if the frame is
+        // free
+        PageId pid;
+        // null while the page is being read
+        Page page;
+
+        Frame(int index) {
+            this.index = index;
+        }
+    }
+
+    /** A partition of the page table, guarded by its own latch. */
+    private static class Stripe {
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        final HashMap<PageId, Frame> frames = new HashMap<PageId, Frame>();
+    }
+
     //CHANGES
-    Page[] bufferPool;
-    private Map<PageId,Integer> pagesDict;
-    private ConcurrentHashMap<PageId,Integer> lruList = new ConcurrentHashMap<PageId,Integer>();
-    private int counter = 0;
+    private final Frame[] frames;
+    private final Stripe[] stripes;
     private int numPages;
 
+    // Guards the replacement policy, the free frame stack, resident and
+    // setAside.
+    // Lock order: replacementLatch, then a stripe latch, then a frame latch.
+    // Page hits never block on it; they queue up in recentHits instead.
+    private final ReentrantLock replacementLatch = new ReentrantLock();
+
+    // decides which frame to give up when a page is read into a full pool
+    private final ReplacementPolicy policy;
+
+    // whether the policy currently knows about a frame
+    private final boolean[] resident;
+    // whether a resident frame was passed over for holding a dirty page
+    private final boolean[] setAside;
+
+    // Stack of the frames that currently hold no page.
+    private final Frame[] freeFrames;
+    private int freeCount;
+
+    // frames hit since the policy was last told about hits
+    private final ConcurrentLinkedQueue<Integer> recentHits = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger pendingHits = new AtomicInteger();
+
+    // page locks of the running transactions
+    private final LockManager lockManager = new LockManager();
+
+    // Frames the background writer tries to keep free or clean; 0 when
+    // there is no writer.
+    private volatile int cleanTarget;
+    private Thread writer;
+    // the writer waits on this; set when a miss found no clean frame
+    private final Object writerSignal = new Object();
+    private boolean writerWanted;
+    // number of passes the writer has made, guarded by replacementLatch
+    private long writerRounds;
+    private final Condition writerRound = replacementLatch.newCondition();
+
+    // pages sequential scans read ahead of themselves, see ReadAhead
+    private volatile int readAhead;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * in least recently used order.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, new LruPolicy());
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy choosing the pages to evict; it
+     *               must not be shared with another BufferPool.
      */
-    public BufferPool(int numPages) {//CHANGES
-        bufferPool = new Page[numPages];
+    public BufferPool(int numPages, ReplacementPolicy policy) {//CHANGES
         this.numPages = numPages;
-        pagesDict = new HashMap<PageId,Integer>();
+        this.policy = policy;
+        policy.init(numPages);
+        frames = new Frame[numPages];
+        resident = new boolean[numPages];
+        setAside = new boolean[numPages];
+        freeFrames = new Frame[numPages];
+        for (int i = numPages - 1; i >= 0; i--) {
+            frames[i] = new Frame(i);
+            // push in reverse so frames are handed out in ascending order
+            freeFrames[freeCount++] = frames[i];
+        }
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            stripes[i] = new Stripe();
+        // reading ahead must not push the pages of the scan itself out
+        readAhead = Math.min(DEFAULT_READ_AHEAD, numPages / 4);
     }
     
     public static int getPageSize() {
@@ -60,6 +170,49 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /** @return the number of pages sequential scans read ahead */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Sets the number of pages sequential scans read ahead of themselves.
+     *
+     * @param pages the read-ahead distance, 0 to turn reading ahead off
+     */
+    public void setReadAhead(int pages) {
+        readAhead = Math.max(0, Math.min(pages, numPages));
+    }
+
+    /**
+     * Starts, retunes or stops the background writer. The writer keeps at
+     * least frames frames of the pool free or clean by writing dirty pages
+     * ahead of eviction, so that misses only ever read. Pages of running
+     * transactions are written too (STEAL), which is only safe because each
+     * write is preceded by its update record in the LogFile: only pages of
+     * transactions that logged their BEGIN are written, and an abort rolls
+     * them back from the log. With no writer (the default) dirty pages stay
+     * in the pool until their transaction completes.
+     *
+     * @param frames the number of frames to keep free or clean, 0 to stop
+     *               the writer
+     */
+    public void setCleanFrameTarget(int frames) {
+        synchronized (writerSignal) {
+            cleanTarget = Math.max(0, Math.min(frames, numPages));
+            if (cleanTarget > 0 && writer == null) {
+                writer = new Thread("BufferPool writer") {
+                    public void run() {
+                        writeBehind();
+                    }
+                };
+                writer.setDaemon(true);
+                writer.start();
+            }
+            writerSignal.notifyAll();
+        }
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -73,34 +226,76 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @param perm the requested permissions on the page; READ_WRITE takes an
+     *             exclusive lock, anything else a shared one
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {//CHANGES
-    	Integer index = pagesDict.get(pid);
-    	if(index != null){
-    		lruList.put(pid,counter++);
-            return bufferPool[index];
+        lockManager.acquire(tid, pid, perm);
+        return fetch(pid, true);
+    }
+
+    /**
+     * Reads pid into the pool ahead of a scan that is about to request it.
+     * No lock is taken, and a page that is cached already is not counted as
+     * requested again.
+     *
+     * @return the cached page, or null if it could not be read
+     * @see ReadAhead
+     */
+    Page prefetch(PageId pid) {
+        try {
+            return fetch(pid, false);
+        } catch (DbException e) {
+            // the pool is full of dirty pages
+            return null;
+        } catch (RuntimeException e) {
+            // e.g. the table was dropped meanwhile
+            return null;
         }
-    	
-        int firstFreeSlot = -1;
-        
-        while(firstFreeSlot < 0) {
-        	for(int i=0; i<bufferPool.length; i++){
-                if(firstFreeSlot<0 && bufferPool[i]==null) firstFreeSlot=i;
+    }
+
+    /**
+     * Looks pid up in the pool, reading it from disk on a miss.
+     *
+     * @param hit whether finding the page cached counts as a request for
+     *            the replacement policy
+     */
+    private Page fetch(PageId pid, boolean hit) throws DbException {
+        while (true) {
+            Frame frame = lookup(pid);
+            if (frame != null) {
+                Page page = awaitPage(frame, pid);
+                if (page != null) {
+                    if (hit)
+                        recordHit(frame);
+                    return page;
+                }
+                // the frame was recycled or its read failed; look again
+                continue;
             }
-            
-            if(firstFreeSlot>=0){
-            	pagesDict.put(pid, firstFreeSlot);
-                bufferPool[firstFreeSlot] = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                lruList.put(pid,counter++);
-                if(lruList.size() > numPages) evictPage();
-                return bufferPool[firstFreeSlot];
+
+            // Miss: map pid to a frame first so that concurrent requests for
+            // the same page wait for this read instead of issuing their own,
+            // then read the page without holding any latch.
+            frame = reserve(pid);
+            if (frame == null)
+                continue;
+            Page page;
+            try {
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } catch (RuntimeException e) {
+                abandon(frame, pid);
+                throw e;
             }
-            evictPage();
+            if (page == null) {
+                abandon(frame, pid);
+                throw new DbException("Could not read page " + pid.getPageNumber()
+                        + " of table " + pid.getTableId());
+            }
+            publish(frame, pid, page);
+            return page;
         }
-        
-        throw new DbException("Buffer Pool is full");
     }
 
     /**
@@ -112,9 +307,8 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
-    public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public  void releasePage(TransactionId tid, PageId pid) {//CHANGES
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -122,29 +316,45 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      */
-    public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public void transactionComplete(TransactionId tid) throws IOException {//CHANGES
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
-    public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+    public boolean holdsLock(TransactionId tid, PageId p) {//CHANGES
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * The pool runs FORCE: every page dirtied by a transaction is written
+     * when it commits. Unless the background writer is running (see
+     * {@link #setCleanFrameTarget}) it also runs NO STEAL, so aborting only
+     * has to put back the cached before-images of its pages. Pages written
+     * before the transaction ended are restored on disk by
+     * {@link LogFile#rollback}, from the update records logged when they
+     * were written.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
-        throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        throws IOException {//CHANGES
+        ArrayList<PageId> pids = lockManager.pagesLockedBy(tid);
+        if (commit) {
+            flushPages(tid);
+        } else {
+            // Transaction rolls back through LogFile.logAbort before getting
+            // here; this covers callers that abort through the pool directly
+            LogFile log = Database.getLogFile();
+            if (log.isActive(tid))
+                log.rollback(tid);
+            restorePages(tid, pids);
+        }
+        reinstate(pids);
+        lockManager.releaseAll(tid);
     }
 
     /**
@@ -164,20 +374,12 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException { //CHANGES
-        ArrayList<Page> pages = ((HeapFile)Database.getCatalog().getDatabaseFile(tableId)).insertTuple(tid, t);
-        
-        pages.forEach(it -> {
-            if(!pagesDict.containsKey(it.getId())){
-            	
-            	int firstFreeSlot = -1;
-                for(int i=0; i<bufferPool.length; i++){
-                    if(firstFreeSlot<0 && bufferPool[i]==null) firstFreeSlot=i;
-                }
-                
-                pagesDict.put(it.getId(), firstFreeSlot);
-                bufferPool[firstFreeSlot] = it;
-            }
-        });
+        ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+
+        for (Page page : pages){
+            page.markDirty(true, tid);
+            cache(page, true);
+        }
     }
 
     /**
@@ -199,18 +401,59 @@ public class BufferPool {
 
         for (Page page : pages){
             page.markDirty(true, tid);
+            cache(page, true);
         }
     }
 
+    /**
+     * Locks pid for tid without reading the page, e.g. to reserve a page
+     * that does not exist yet. May block like {@link #getPage}.
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquire(tid, pid, perm);
+    }
+
+    /**
+     * Writes pages that tid filled in memory straight to the end of file,
+     * without caching them. tid must hold exclusive locks on the pages, none
+     * of which may be in the file yet, and must have logged its BEGIN.
+     * Since the pages are new, the log only records which pages they are:
+     * one APPEND record per run of consecutive pages, forced once for the
+     * batch, so that aborting tid empties the pages again. Their contents
+     * are not logged, so the caller forces the file itself before tid
+     * commits, see {@link HeapFile#appendTuples}.
+     */
+    void appendPages(TransactionId tid, HeapFile file, List<Page> pages)
+            throws IOException {
+        LogFile log = Database.getLogFile();
+        synchronized (this) {
+            int i = 0;
+            while (i < pages.size()) {
+                int first = pages.get(i).getId().getPageNumber();
+                int j = i + 1;
+                while (j < pages.size() && pages.get(j).getId().getPageNumber() == first + j - i)
+                    j++;
+                log.logAppend(tid, file.getId(), first, j - i);
+                i = j;
+            }
+            log.force();
+        }
+        for (Page page : pages)
+            discardPage(page.getId());
+        file.writePages(pages);
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException { //CHANGES
-        for(int i = 0; i < bufferPool.length; i++) {
-            if(bufferPool[i] != null && lruList.get(bufferPool[i].getId()) != null) {
-                flushPage(bufferPool[i].getId());
+        for (Frame frame : frames) {
+            synchronized (frame) {
+                if (frame.page != null)
+                    flush(frame.page);
             }
         }
     }
@@ -223,11 +466,25 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) { //CHANGES
-    	if(pagesDict.containsKey(pid)){
-            Integer index = pagesDict.get(pid);
-            bufferPool[index] = null;
-            pagesDict.remove(pid);
+    public void discardPage(PageId pid) { //CHANGES
+        replacementLatch.lock();
+        try {
+            Frame frame = unmap(pid);
+            if (frame == null)
+                return;
+            synchronized (frame) {
+                boolean loading = frame.page == null;
+                frame.pid = null;
+                frame.page = null;
+                frame.notifyAll();
+                // the thread reading the page frees the frame once it
+                // notices that the page was discarded meanwhile
+                if (loading)
+                    return;
+            }
+            release(frame);
+        } finally {
+            replacementLatch.unlock();
         }
     }
 
@@ -235,40 +492,489 @@ public class BufferPool {
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException { //CHANGES
-        if(bufferPool[pagesDict.get(pid)].isDirty() != null){
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(bufferPool[pagesDict.get(pid)]);
-            bufferPool[pagesDict.get(pid)].markDirty(false, null);
+    private synchronized void flushPage(PageId pid) throws IOException { //CHANGES
+        Frame frame = lookup(pid);
+        if (frame == null)
+            return;
+        synchronized (frame) {
+            if (pid.equals(frame.pid) && frame.page != null)
+                flush(frame.page);
         }
     }
 
+    /**
+     * Writes page to disk if it is dirty, forcing its update record to the
+     * log first. The caller holds the frame latch and, as required by
+     * LogFile, the BufferPool monitor.
+     */
+    private void flush(Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier != null) {
+            LogFile log = Database.getLogFile();
+            log.logWrite(dirtier, page.getBeforeImage(), page);
+            log.force();
+            write(page);
+        }
+    }
+
+    /** Writes page to disk and marks it clean. */
+    private void write(Page page) throws IOException {
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+        page.markDirty(false, null);
+    }
+
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public synchronized  void flushPages(TransactionId tid) throws IOException {//CHANGES
+        ArrayList<PageId> pids = lockManager.pagesLockedBy(tid);
+        LogFile log = Database.getLogFile();
+        // log every update first so that a single force covers them all
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (PageId pid : pids) {
+            Page page = cachedPage(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                log.logWrite(tid, page.getBeforeImage(), page);
+                dirty.add(page);
+            }
+        }
+        if (dirty.isEmpty())
+            return;
+        log.force();
+        for (Page page : dirty) {
+            Frame frame = lookup(page.getId());
+            if (frame == null)
+                continue;
+            synchronized (frame) {
+                if (frame.page == page && tid.equals(page.isDirty())) {
+                    write(page);
+                    // the committed state is what a later abort rolls back to
+                    page.setBeforeImage();
+                }
+            }
+        }
+        // pages the background writer wrote earlier are clean by now
+        for (PageId pid : pids) {
+            if (!lockManager.holdsExclusive(tid, pid))
+                continue;
+            Page page = cachedPage(pid);
+            if (page != null && page.isDirty() == null)
+                page.setBeforeImage();
+        }
+    }
+
+    /** @return the cached version of pid, or null if it is not in the pool */
+    private Page cachedPage(PageId pid) {
+        Frame frame = lookup(pid);
+        if (frame == null)
+            return null;
+        synchronized (frame) {
+            return pid.equals(frame.pid) ? frame.page : null;
+        }
+    }
+
+    /** Replaces the pages tid dirtied with their before-images. */
+    private void restorePages(TransactionId tid, ArrayList<PageId> pids) {
+        for (PageId pid : pids) {
+            Frame frame = lookup(pid);
+            if (frame == null)
+                continue;
+            synchronized (frame) {
+                Page page = frame.page;
+                if (pid.equals(frame.pid) && page != null && tid.equals(page.isDirty()))
+                    frame.page = page.getBeforeImage();
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool. Dirty pages are never evicted
+     * (NO STEAL): a dirty victim is set aside in the replacement policy,
+     * keeping its place there, until its transaction completes, and the
+     * policy is asked again.
+     * The caller holds the replacement latch.
+     *
+     * @return the frame that held the page, now free and owned by the caller
+     * @throws DbException if every page in the pool is dirty
      */
-    private synchronized  void evictPage() throws DbException { //CHANGES
-        PageId pid = null;
-        int min = Integer.MAX_VALUE;
-        for(PageId p : lruList.keySet()){
-            if(lruList.get(p) < min){
-                min = lruList.get(p);
-                pid = p;
+    private Frame evictPage() throws DbException { //CHANGES
+        while (true) {
+            int victim = policy.victim();
+            if (victim == ReplacementPolicy.NO_FRAME) {
+                // every cached page is dirty; the background writer, if
+                // there is one, may be able to clean some
+                if (reinstateClean() || awaitWriter())
+                    continue;
+                throw new DbException("Buffer Pool is full: every cached page is dirty");
+            }
+
+            Frame frame = frames[victim];
+            PageId pid;
+            // Detach the page under the same latch as the dirty check, so
+            // that a concurrent cache() of a freshly dirtied version sees
+            // the frame change hands and maps the page to a new frame.
+            synchronized (frame) {
+                if (frame.page.isDirty() != null) {
+                    policy.setAside(victim);
+                    setAside[victim] = true;
+                    continue;
+                }
+                pid = frame.pid;
+                frame.pid = null;
+                frame.page = null;
             }
+            policy.removed(victim);
+            resident[victim] = false;
+            unmap(pid);
+            return frame;
         }
+    }
+
+    /**
+     * Hands the frames holding pids that were set aside while dirty back to
+     * the replacement policy, now that their transaction is over.
+     */
+    private void reinstate(ArrayList<PageId> pids) {
+        replacementLatch.lock();
         try {
-            flushPage(pid);
-        } catch (IOException e) {
-            e.printStackTrace();
+            for (PageId pid : pids) {
+                Frame frame = lookup(pid);
+                if (frame != null)
+                    reinstate(frame);
+            }
+        } finally {
+            replacementLatch.unlock();
+        }
+    }
+
+    /**
+     * Hands every clean frame set aside while dirty back to the replacement
+     * policy. The caller holds the replacement latch.
+     *
+     * @return true if any frame was handed back
+     */
+    private boolean reinstateClean() {
+        boolean any = false;
+        for (Frame frame : frames)
+            any |= reinstate(frame);
+        return any;
+    }
+
+    /**
+     * Hands frame back to the replacement policy if it was set aside and
+     * holds a clean page by now. The caller holds the replacement latch.
+     */
+    private boolean reinstate(Frame frame) {
+        if (!setAside[frame.index])
+            return false;
+        synchronized (frame) {
+            if (frame.page == null || frame.page.isDirty() != null)
+                return false;
+        }
+        policy.restored(frame.index);
+        setAside[frame.index] = false;
+        return true;
+    }
+
+    /**
+     * Wakes up the background writer and waits for it to make two full
+     * passes over the pool. The caller holds the replacement latch.
+     *
+     * @return true if clean frames were handed back to the replacement
+     *         policy meanwhile
+     */
+    private boolean awaitWriter() {
+        if (cleanTarget == 0)
+            return false;
+        long until = writerRounds + 2;
+        synchronized (writerSignal) {
+            writerWanted = true;
+            writerSignal.notifyAll();
+        }
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(WRITER_WAIT);
+            while (writerRounds < until && nanos > 0)
+                nanos = writerRound.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return reinstateClean();
+    }
+
+    /** Body of the background writer thread. */
+    private void writeBehind() {
+        while (true) {
+            synchronized (writerSignal) {
+                if (cleanTarget == 0) {
+                    writer = null;
+                    return;
+                }
+                try {
+                    if (!writerWanted)
+                        writerSignal.wait(WRITER_INTERVAL);
+                } catch (InterruptedException e) {
+                    writer = null;
+                    return;
+                }
+                writerWanted = false;
+            }
+            try {
+                writeAhead();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            replacementLatch.lock();
+            try {
+                writerRounds++;
+                writerRound.signalAll();
+            } finally {
+                replacementLatch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes dirty pages until at least cleanTarget frames are free or
+     * clean. Frames the replacement policy already passed over for being
+     * dirty are written first, since they are the ones it wants to evict.
+     */
+    private void writeAhead() throws IOException {
+        int clean = 0;
+        ArrayList<Frame> passedOver = new ArrayList<Frame>();
+        ArrayList<Frame> dirty = new ArrayList<Frame>();
+        for (Frame frame : frames) {
+            synchronized (frame) {
+                if (frame.pid == null || (frame.page != null && frame.page.isDirty() == null))
+                    clean++;
+                else if (frame.page != null)
+                    (setAside[frame.index] ? passedOver : dirty).add(frame);
+            }
+        }
+        passedOver.addAll(dirty);
+        LogFile log = Database.getLogFile();
+        // see the locking note of LogFile
+        synchronized (this) {
+            for (Frame frame : passedOver) {
+                if (clean >= cleanTarget)
+                    break;
+                synchronized (frame) {
+                    Page page = frame.page;
+                    if (page == null)
+                        continue;
+                    TransactionId dirtier = page.isDirty();
+                    // without a BEGIN record the update could not be undone
+                    if (dirtier != null && !log.isActive(dirtier))
+                        continue;
+                    flush(page);
+                    clean++;
+                }
+            }
+        }
+    }
+
+    /** @return the partition of the page table responsible for pid */
+    private Stripe stripeFor(PageId pid) {
+        return stripes[(pid.hashCode() & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    /** @return the frame holding or reading pid, or null if there is none */
+    private Frame lookup(PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.readLock().lock();
+        try {
+            return stripe.frames.get(pid);
+        } finally {
+            stripe.latch.readLock().unlock();
+        }
+    }
+
+    /** Removes pid from the page table. @return the frame it was mapped to */
+    private Frame unmap(PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.writeLock().lock();
+        try {
+            return stripe.frames.remove(pid);
+        } finally {
+            stripe.latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until frame holds pid.
+     *
+     * @return the page, or null if the frame stopped holding pid meanwhile
+     */
+    private Page awaitPage(Frame frame, PageId pid) throws DbException {
+        synchronized (frame) {
+            while (pid.equals(frame.pid) && frame.page == null) {
+                try {
+                    frame.wait();
+                } catch (InterruptedException e) {
+                    throw new DbException("Interrupted while waiting for page " + pid.getPageNumber());
+                }
+            }
+            return pid.equals(frame.pid) ? frame.page : null;
+        }
+    }
+
+    /**
+     * Puts page in the pool. If a version of the same page is cached already
+     * it is replaced when replace is set, and returned otherwise.
+     *
+     * @return the cached version of the page
+     */
+    private Page cache(Page page, boolean replace) throws DbException {
+        PageId pid = page.getId();
+        while (true) {
+            Frame frame = lookup(pid);
+            if (frame == null) {
+                frame = reserve(pid);
+                if (frame == null)
+                    continue;
+                publish(frame, pid, page);
+                return page;
+            }
+
+            Page cached = awaitPage(frame, pid);
+            if (cached == null)
+                continue;
+            if (replace) {
+                synchronized (frame) {
+                    if (!pid.equals(frame.pid))
+                        continue;
+                    frame.page = page;
+                    cached = page;
+                }
+            }
+            recordHit(frame);
+            return cached;
+        }
+    }
+
+    /**
+     * Maps pid to a frame whose page is still to be read; threads requesting
+     * pid meanwhile wait on the frame latch. If there is no free frame left,
+     * a page chosen by the replacement policy is evicted.
+     *
+     * @return the reserved frame, or null if another thread mapped pid first
+     */
+    private Frame reserve(PageId pid) throws DbException {
+        replacementLatch.lock();
+        try {
+            Frame frame = allocateFrame();
+            Stripe stripe = stripeFor(pid);
+            stripe.latch.writeLock().lock();
+            try {
+                if (stripe.frames.containsKey(pid)) {
+                    release(frame);
+                    return null;
+                }
+                synchronized (frame) {
+                    frame.pid = pid;
+                    frame.page = null;
+                }
+                stripe.frames.put(pid, frame);
+                return frame;
+            } finally {
+                stripe.latch.writeLock().unlock();
+            }
+        } finally {
+            replacementLatch.unlock();
+        }
+    }
+
+    /** Fills a frame reserved for pid and wakes up the threads waiting for it. */
+    private void publish(Frame frame, PageId pid, Page page) {
+        replacementLatch.lock();
+        try {
+            synchronized (frame) {
+                if (!pid.equals(frame.pid)) {
+                    // discarded while being read
+                    release(frame);
+                    return;
+                }
+                frame.page = page;
+                frame.notifyAll();
+            }
+            policy.loaded(frame.index, pid);
+            resident[frame.index] = true;
+        } finally {
+            replacementLatch.unlock();
+        }
+    }
+
+    /** Gives up a frame reserved for pid whose page could not be read. */
+    private void abandon(Frame frame, PageId pid) {
+        replacementLatch.lock();
+        try {
+            Stripe stripe = stripeFor(pid);
+            stripe.latch.writeLock().lock();
+            try {
+                if (stripe.frames.get(pid) == frame)
+                    stripe.frames.remove(pid);
+            } finally {
+                stripe.latch.writeLock().unlock();
+            }
+            synchronized (frame) {
+                frame.pid = null;
+                frame.notifyAll();
+            }
+            release(frame);
+        } finally {
+            replacementLatch.unlock();
+        }
+    }
+
+    /**
+     * Takes a frame off the free stack, evicting a page if the stack is
+     * empty. The caller holds the replacement latch.
+     */
+    private Frame allocateFrame() throws DbException {
+        drainHits();
+        if (freeCount == 0)
+            return evictPage();
+        return freeFrames[--freeCount];
+    }
+
+    /** Returns frame to the free stack. The caller holds the replacement latch. */
+    private void release(Frame frame) {
+        if (resident[frame.index]) {
+            policy.removed(frame.index);
+            resident[frame.index] = false;
+            setAside[frame.index] = false;
+        }
+        freeFrames[freeCount++] = frame;
+    }
+
+    /**
+     * Notes a hit on frame for the replacement policy without blocking: the
+     * hit is queued and the queue is drained by whichever thread next holds
+     * the replacement latch. Hits are dropped while the queue is full.
+     */
+    private void recordHit(Frame frame) {
+        if (pendingHits.incrementAndGet() > MAX_PENDING_HITS) {
+            pendingHits.decrementAndGet();
+            return;
+        }
+        recentHits.add(frame.index);
+        if (pendingHits.get() >= HIT_DRAIN_THRESHOLD && replacementLatch.tryLock()) {
+            try {
+                drainHits();
+            } finally {
+                replacementLatch.unlock();
+            }
+        }
+    }
+
+    /** Hands queued hits to the policy. The caller holds the replacement latch. */
+    private void drainHits() {
+        Integer index;
+        while ((index = recentHits.poll()) != null) {
+            pendingHits.decrementAndGet();
+            // the frame may have been recycled since it was hit
+            if (resident[index])
+                policy.accessed(index);
         }
-        bufferPool[pagesDict.get(pid)] = null;
-        lruList.remove(pid);
     }
 
 }
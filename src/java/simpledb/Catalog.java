@@ -132,6 +132,10 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The schema of a table may be followed by options: "slotted" stores it in
+     * a SlottedHeapFile, "compressed" in a CompressedHeapFile and "columnar" in
+     * a ColumnFile, a file per column. "mapped" reads a table that is not
+     * columnar through a mapping of its file, see {@link HeapFile#setMapped}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -141,7 +145,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted|compressed|columnar] [mapped]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -172,7 +176,39 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String format = null;
+                boolean mapped = false;
+                String options = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                for (String option : options.split("\\s+")) {
+                    if ((option.equals("slotted") || option.equals("compressed")
+                            || option.equals("columnar")) && format == null)
+                        format = option;
+                    else if (option.equals("mapped"))
+                        mapped = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File file = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if ("columnar".equals(format)) {
+                    if (mapped) {
+                        System.out.println("Columnar table " + name + " cannot be mapped");
+                        System.exit(0);
+                    }
+                    tabHf = new ColumnFile(file, t);
+                } else {
+                    HeapFile hf;
+                    if ("slotted".equals(format))
+                        hf = new SlottedHeapFile(file, t);
+                    else if ("compressed".equals(format))
+                        hf = new CompressedHeapFile(file, t);
+                    else
+                        hf = new HeapFile(file, t);
+                    hf.setMapped(mapped);
+                    tabHf = hf;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * CLOCK (second chance) replacement. Each frame carries a reference bit that
+ * is set whenever its page is requested; the clock hand sweeps the frames,
+ * clearing set bits, and evicts the first resident frame whose bit is
+ * already clear. Approximates LRU with O(1) bookkeeping on hits.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private boolean[] resident;
+    private boolean[] referenced;
+    private boolean[] aside;
+    private int hand;
+    private int numResident;
+
+    public void init(int numFrames) {
+        resident = new boolean[numFrames];
+        referenced = new boolean[numFrames];
+        aside = new boolean[numFrames];
+        hand = 0;
+        numResident = 0;
+    }
+
+    public void loaded(int frame, PageId pid) {
+        resident[frame] = true;
+        referenced[frame] = true;
+        numResident++;
+    }
+
+    public void accessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void removed(int frame) {
+        if (resident[frame])
+            numResident--;
+        resident[frame] = false;
+        referenced[frame] = false;
+        aside[frame] = false;
+    }
+
+    public void setAside(int frame) {
+        aside[frame] = true;
+    }
+
+    public void restored(int frame) {
+        aside[frame] = false;
+    }
+
+    public int victim() {
+        if (numResident == 0)
+            return NO_FRAME;
+        // the first sweep clears every reference bit, so the second one
+        // is guaranteed to find a victim
+        for (int steps = 0; steps < 2 * resident.length; steps++) {
+            int frame = hand;
+            hand = (hand + 1) % resident.length;
+            if (!resident[frame] || aside[frame])
+                continue;
+            if (!referenced[frame])
+                return frame;
+            referenced[frame] = false;
+        }
+        return NO_FRAME;
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores a table a column at a time. Each column
+ * lives in a file of its own, next to the file the ColumnFile is created
+ * with: column i of a table stored as "t.dat" is in "t.dat.i". Those files
+ * are runs of ColumnPages, and row r of the table is in the same slot of the
+ * same page of every one of them, so a scan of a few columns reads just
+ * their pages; see {@link #iterator(TransactionId, int[])}.
+ * <p>
+ * A row is in the table if its slot is in use; the headers of the pages of
+ * all columns agree on that. The rows are counted from the file of column 0,
+ * which is extended as soon as a row is added past its end.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int id;
+    private final PageChannel[] channels;
+    // no page of column 0 before this one has an empty slot
+    private volatile int firstFreePage;
+
+    /**
+     * Constructs a column file whose columns are stored next to f.
+     *
+     * @param f
+     *            the name of the table's files; column i is stored in the
+     *            file of that name followed by "." and i
+     * @param td
+     *            the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.channels = new PageChannel[td.numFields()];
+        for (int i = 0; i < channels.length; i++)
+            channels[i] = new PageChannel(getColumnFile(i));
+    }
+
+    /**
+     * Returns the File the ColumnFile was created with, which names the
+     * files of its columns.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /** Returns the File that stores column i on disk. */
+    public File getColumnFile(int i) {
+        return new File(f.getPath() + "." + i);
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows a page of column i holds */
+    int rowsPerPage(int i) {
+        return ColumnPage.getNumSlots(td.getFieldType(i));
+    }
+
+    /** @return the page of column i that holds row */
+    ColumnPageId pageOf(int i, int row) {
+        return new ColumnPageId(id, i, row / rowsPerPage(i));
+    }
+
+    /** @return the number of pages in the file of column i */
+    public int numPages(int i) {
+        try {
+            return (int) (channels[i].size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the number of row slots in the table, in use or not */
+    int numRows() {
+        return numPages(0) * rowsPerPage(0);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != id)
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        try {
+            // pages past the end of the file read as empty pages
+            byte[] buffer = PageChannel.buffer(pageSize);
+            channels[cpid.getColumn()].read((long) pageSize * cpid.getPageNumber(), buffer);
+            return new ColumnPage(cpid, buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        channels[cpid.getColumn()].write((long) cpid.getPageNumber() * BufferPool.getPageSize(),
+                page.getPageData());
+    }
+
+    /**
+     * Adds t to the first empty row slot, storing each field in the page of
+     * its column. Its RecordId names the page of column 0 and the slot.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        int row = -1;
+        for (int p = firstFreePage; row == -1; p++) {
+            ColumnPageId pid = new ColumnPageId(id, 0, p);
+            boolean held = pool.holdsLock(tid, pid);
+            ColumnPage page = (ColumnPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() == 0) {
+                if (p == firstFreePage)
+                    firstFreePage = p + 1;
+                // nothing was read from the page, so giving the lock up
+                // early cannot break two-phase locking
+                if (!held)
+                    pool.releasePage(tid, pid);
+                continue;
+            }
+            page = (ColumnPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            int slot = page.getFirstEmptySlot();
+            if (slot == -1)
+                continue;
+            // extend the file of column 0 right away, which counts the rows
+            if (p >= numPages(0))
+                writePage(page);
+            row = p * rowsPerPage(0) + slot;
+        }
+
+        ArrayList<Page> written = new ArrayList<Page>();
+        for (int i = 0; i < td.numFields(); i++) {
+            ColumnPageId pid = pageOf(i, row);
+            ColumnPage page = (ColumnPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            page.setValue(row % rowsPerPage(i), t.getField(i));
+            page.markDirty(true, tid);
+            written.add(page);
+        }
+        t.setRecordId(new RecordId(pageOf(0, row), row % rowsPerPage(0)));
+        return written;
+    }
+
+    /**
+     * Removes the row of t from the pages of every column.
+     * @throws DbException if t is not in this table
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != id
+                || ((ColumnPageId) rid.getPageId()).getColumn() != 0)
+            throw new DbException("tuple is not in this table");
+        int row = rid.getPageId().getPageNumber() * rowsPerPage(0) + rid.getTupleNumber();
+
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Page> written = new ArrayList<Page>();
+        for (int i = 0; i < td.numFields(); i++) {
+            ColumnPage page = (ColumnPage) pool.getPage(tid, pageOf(i, row), Permissions.READ_WRITE);
+            page.clearValue(row % rowsPerPage(i));
+            page.markDirty(true, tid);
+            written.add(page);
+        }
+        if (rid.getPageId().getPageNumber() < firstFreePage)
+            firstFreePage = rid.getPageId().getPageNumber();
+        return written;
+    }
+
+    /** Returns an iterator over all the columns of the table. */
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = i;
+        return iterator(tid, columns);
+    }
+
+    /**
+     * Returns an iterator over some columns of the table, which reads the
+     * pages of those columns only. Its tuples have the given columns, in
+     * the given order, and the RecordId of the row.
+     *
+     * @param columns the indices of the columns to read, at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("a scan needs at least one column");
+        return new ColumnFileIterator(this, tid, columns);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * Iterates over the rows of a ColumnFile, reading the pages of the given
+ * columns only. The first of the columns decides which rows are in use.
+ */
+class ColumnFileIterator extends AbstractDbFileIterator {
+
+    private final ColumnFile file;
+    private final TransactionId tid;
+    private final int[] columns;
+    private final TupleDesc td;
+
+    // the page of each column that holds the current row, if read yet
+    private ColumnPage[] pages;
+    private ReadAhead[] readAheads;
+    private int row;
+    private int numRows;
+
+    ColumnFileIterator(ColumnFile file, TransactionId tid, int[] columns) {
+        this.file = file;
+        this.tid = tid;
+        this.columns = columns.clone();
+        TupleDesc full = file.getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = full.getFieldType(columns[k]);
+            names[k] = full.getFieldName(columns[k]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pages = new ColumnPage[columns.length];
+        readAheads = new ReadAhead[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            final int column = columns[k];
+            final int numPages = file.numPages(column);
+            readAheads[k] = new ReadAhead() {
+                PageId next(Page page) {
+                    int next = page.getId().getPageNumber() + 1;
+                    return next < numPages ? new ColumnPageId(file.getId(), column, next) : null;
+                }
+            };
+        }
+        row = 0;
+        numRows = file.numRows();
+    }
+
+    /** @return the page of the k-th column that holds row, reading it if needed */
+    private ColumnPage page(int k) throws DbException, TransactionAbortedException {
+        ColumnPageId pid = file.pageOf(columns[k], row);
+        if (pages[k] == null || !pages[k].getId().equals(pid)) {
+            pages[k] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            readAheads[k].advance(pages[k]);
+        }
+        return pages[k];
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (pages == null)
+            return null;
+        for (; row < numRows; row++) {
+            if (!page(0).isSlotUsed(row % file.rowsPerPage(columns[0])))
+                continue;
+            Tuple t = new Tuple(td);
+            for (int k = 0; k < columns.length; k++)
+                t.setField(k, page(k).getValue(row % file.rowsPerPage(columns[k])));
+            t.setRecordId(new RecordId(file.pageOf(0, row), row % file.rowsPerPage(0)));
+            row++;
+            return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        pages = null;
+        readAheads = null;
+    }
+}
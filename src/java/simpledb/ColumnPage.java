@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnPage stores the values of one column of a ColumnFile for a run of
+ * consecutive rows. Its format is that of a HeapPage whose tuples have just
+ * the one field: a header with a bit per slot telling which slots are in use,
+ * then the slots, each as many bytes as the type of the column. The number of
+ * slots is
+ * <p>
+ *          floor((BufferPool.getPageSize()*8) / (type length * 8 + 1))
+ * <p>
+ * Slot i of page p of a column holds row p * (slots per page) + i.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    final byte header[];
+    final Field values[];
+    final int numSlots;
+
+    TransactionId tid;
+    private boolean dirty = false;
+
+    // the before image; null while the page is as it was when the image
+    // was set, so that it is only copied when the page is first changed
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.numSlots = getNumSlots(type);
+
+        header = Arrays.copyOf(data, (numSlots + 7) / 8);
+        values = new Field[numSlots];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                values[i] = type.parse(buf, header.length + i * type.getLen());
+        }
+    }
+
+    /** @return the number of values of type a ColumnPage holds */
+    static int getNumSlots(Type type) {
+        return BufferPool.getPageSize() * 8 / (type.getLen() * 8 + 1);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // unchanged since the before image was set
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // the page as it is stays the before image until it is changed
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /** Copies the page into its before image before its first change. */
+    private void keepBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.write(header);
+            byte[] empty = new byte[type.getLen()];
+            for (int i = 0; i < numSlots; i++) {
+                if (values[i] == null)
+                    dos.write(empty);
+                else
+                    values[i].serialize(dos);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - header.length - numSlots * type.getLen()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return true if slot i holds a value */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** @return the number of slots that hold no value */
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (byte b : header)
+            used += Integer.bitCount(b & 0xff);
+        return numSlots - used;
+    }
+
+    /** @return the first slot that holds no value, -1 if there is none */
+    public int getFirstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /** @return the value in slot i, null if the slot is empty */
+    public Field getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Stores f in slot i, which must be empty.
+     * @throws DbException if slot i is in use or f is of the wrong type
+     */
+    public void setValue(int i, Field f) throws DbException {
+        if (isSlotUsed(i) || f.getType() != type)
+            throw new DbException("Couldn't store value in slot " + i);
+        keepBeforeImage();
+        values[i] = f;
+        header[i / 8] |= 1 << (i % 8);
+    }
+
+    /**
+     * Empties slot i.
+     * @throws DbException if slot i is empty already
+     */
+    public void clearValue(int i) throws DbException {
+        if (!isSlotUsed(i))
+            throw new DbException("Slot " + i + " is empty already");
+        keepBeforeImage();
+        values[i] = null;
+        header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return !dirty ? null : tid;
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table the page stores
+     * @param pgNo The page number in the file of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table the page stores */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the file of column getColumn() of table
+     *   getTableId() associated with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, made of the table number, the
+     *   column and the page number (needed if a PageId is used as a key in a
+     *   hash table in the BufferPool, for example.)
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers, table
+     *   ids and columns are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && column == p.column && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        return "(tableId: " + tableId + ", column: " + column + ", pgNo: " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+}
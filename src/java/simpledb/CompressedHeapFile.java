@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are CompressedHeapPages, which
+ * store each column run-length encoded, and the strings of a column through a
+ * dictionary. A table with few distinct values per column, or long runs of
+ * equal ones, fits several times more tuples on a page than it does in a
+ * HeapFile, so scans of it read fewer pages and take less room in the
+ * BufferPool.
+ *
+ * @see simpledb.CompressedHeapPage
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    TuplePage newPage(HeapPageId pid, InputStream in) throws IOException {
+        return new CompressedHeapPage(pid, in);
+    }
+}
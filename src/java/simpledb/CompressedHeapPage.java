@@ -0,0 +1,500 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * CompressedHeapPage is the page of a CompressedHeapFile. It stores its
+ * tuples a column at a time, so that runs of equal values and repeated
+ * strings take next to no space, and decodes them all when it is read.
+ * <p>
+ * The page starts with an int, the number of slots, and a bitmap of the
+ * slots in use, one bit per slot as in a HeapPage. Each column of the tuples
+ * in use follows, in slot order, as runs of equal values: the number of runs,
+ * then for every run its value and its length. Values are stored as the
+ * difference to the value of the previous run. A string column starts with a
+ * dictionary of the distinct strings of the column on the page, in order of
+ * first use, and the values of its runs are indices into it. Every number is
+ * a variable-length unsigned integer of 7 bits per byte, and differences are
+ * zig-zag encoded so that small negative ones are short too. A string in the
+ * dictionary is its length and one byte per character.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, while it is on the page.
+ *
+ * @see CompressedHeapFile
+ */
+public class CompressedHeapPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // tuples by slot, null for an empty slot
+    private final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    private int emptySlots;
+    // the encoded columns of the tuples on the page; null when a delete has
+    // made them stale
+    private Column[] columns;
+    // the columns hasRoomFor encoded with the fields trialFields in the
+    // first empty slot, which insertTuple takes over if it gets the same
+    // fields; null once the page changes
+    private Column[] trial;
+    private Field[] trialFields;
+
+    TransactionId tid;
+    private boolean dirty = false;
+
+    // the before image; null while the page is as it was when the image
+    // was set, so that it is only copied when the page is first changed
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a CompressedHeapPage from the bytes of a page read from disk, in
+     * the format described above. All zeroes is an empty page.
+     */
+    public CompressedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data.length == BufferPool.getPageSize() ? data
+                : Arrays.copyOf(data, BufferPool.getPageSize()), false);
+    }
+
+    /**
+     * Create a CompressedHeapPage from the bytes of a page as they are read
+     * from in.
+     */
+    CompressedHeapPage(HeapPageId id, InputStream in) throws IOException {
+        this(id, readFully(in), true);
+    }
+
+    private CompressedHeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            int numSlots = buf.getInt();
+            byte[] header = new byte[(numSlots + 7) / 8];
+            buf.get(header);
+            int used = 0;
+            for (byte b : header)
+                used += Integer.bitCount(b & 0xff);
+
+            Field[][] values = new Field[td.numFields()][];
+            for (int j = 0; j < td.numFields(); j++)
+                values[j] = readColumn(buf, td.getFieldType(j), used);
+
+            int next = 0;
+            for (int i = 0; i < numSlots; i++) {
+                if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                    slots.add(null);
+                    emptySlots++;
+                    continue;
+                }
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, values[j][next]);
+                slots.add(t);
+                next++;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("corrupt compressed page " + id, e);
+        }
+
+        // data is never modified, so if nobody else can modify it either,
+        // it is the before image as it is
+        synchronized (oldDataLock) {
+            oldData = owned ? data : null;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        DataInputStream dis = new DataInputStream(in);
+        dis.readFully(data);
+        dis.close();
+        return data;
+    }
+
+    /** Decodes the count values of a column starting at the position of buf. */
+    private static Field[] readColumn(ByteBuffer buf, Type type, int count) {
+        Field[] dict = null;
+        if (type == Type.STRING_TYPE) {
+            dict = new Field[readVarint(buf)];
+            for (int k = 0; k < dict.length; k++) {
+                byte[] bs = new byte[readVarint(buf)];
+                buf.get(bs);
+                dict[k] = new StringField(new String(bs), Type.STRING_LEN);
+            }
+        }
+        Field[] values = new Field[count];
+        int runs = readVarint(buf);
+        int value = 0, n = 0;
+        for (int r = 0; r < runs; r++) {
+            value += unzigzag(readVarint(buf));
+            int length = readVarint(buf);
+            // equal values share one Field, they are immutable
+            Field f = dict != null ? dict[value] : new IntField(value);
+            Arrays.fill(values, n, n + length, f);
+            n += length;
+        }
+        if (n != count)
+            throw new IllegalStateException("column has " + n + " values, expected " + count);
+        return values;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public CompressedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // unchanged since the before image was set
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new CompressedHeapPage(pid, oldDataRef, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // the page as it is stays the before image until it is changed
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /** Copies the page into its before image before its first change. */
+    private void keepBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = slots.size();
+        buf.putInt(numSlots);
+        byte[] header = new byte[(numSlots + 7) / 8];
+        for (int i = 0; i < numSlots; i++) {
+            if (slots.get(i) != null)
+                header[i / 8] |= 1 << (i % 8);
+        }
+        buf.put(header);
+        for (Column c : columns())
+            c.write(buf);
+        return data;
+    }
+
+    /** @return the columns of the tuples on the page, encoded again if stale */
+    private Column[] columns() {
+        if (columns == null)
+            columns = encode(-1, null);
+        return columns;
+    }
+
+    /** @return the columns of the tuples on the page, with t in slot if t is not null */
+    private Column[] encode(int slot, Tuple t) {
+        Column[] cols = new Column[td.numFields()];
+        for (int j = 0; j < cols.length; j++)
+            cols[j] = new Column(td.getFieldType(j));
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple s = i == slot ? t : slots.get(i);
+            if (s == null)
+                continue;
+            for (int j = 0; j < cols.length; j++)
+                cols[j].add(s.getField(j));
+        }
+        return cols;
+    }
+
+    /** @return the size in bytes of a page of numSlots slots and the columns cols */
+    private static int sizeOf(Column[] cols, int numSlots) {
+        int size = 4 + (numSlots + 7) / 8;
+        for (Column c : cols)
+            size += c.size();
+        return size;
+    }
+
+    /**
+     * @return the number of bytes left on the page, as it would be written now
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - sizeOf(columns(), slots.size());
+    }
+
+    /**
+     * @return true if the page would still fit once t is added to it. Adding
+     *         a tuple after the last one costs little to check; filling an
+     *         empty slot encodes the page again, once for as long as the
+     *         page and the fields of t stay the same.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (emptySlots > 0)
+            return sizeOf(trial(t), slots.size()) <= BufferPool.getPageSize();
+        Column[] cols = columns();
+        int size = sizeOf(cols, slots.size() + 1);
+        for (int j = 0; j < cols.length; j++)
+            size += cols[j].cost(t.getField(j));
+        return size <= BufferPool.getPageSize();
+    }
+
+    /** @return the columns of the page with t in its first empty slot */
+    private Column[] trial(Tuple t) {
+        boolean same = trialFields != null;
+        for (int j = 0; same && j < trialFields.length; j++)
+            same = trialFields[j] == t.getField(j);
+        if (!same) {
+            trial = encode(slots.indexOf(null), t);
+            trialFields = new Field[td.numFields()];
+            for (int j = 0; j < trialFields.length; j++)
+                trialFields[j] = t.getField(j);
+        }
+        return trial;
+    }
+
+    /**
+     * @return true if a copy of the last tuple on the page would fit after
+     *         it. It lengthens the last run of every column, which takes at
+     *         most a byte per column, and the slot bitmap by at most a byte.
+     */
+    public boolean hasRoom() {
+        return getFreeSpace() > td.numFields();
+    }
+
+    /**
+     * Adds t to this page, in the first empty slot or a new one, and sets
+     * its RecordId.
+     * @throws DbException if t does not fit
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!hasRoomFor(t))
+            throw new DbException("Couldn't insert Tuple, not enough space left");
+        keepBeforeImage();
+        int slot;
+        if (emptySlots > 0) {
+            slot = slots.indexOf(null);
+            slots.set(slot, t);
+            emptySlots--;
+            // hasRoomFor encoded the page with t in the slot
+            columns = trial;
+        } else {
+            slot = slots.size();
+            slots.add(t);
+            // hasRoomFor encoded the columns
+            for (int j = 0; j < columns.length; j++)
+                columns[j].add(t.getField(j));
+        }
+        trial = null;
+        trialFields = null;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Removes t from this page; its slot stays, empty, until it is reused.
+     * @throws DbException if t is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid == null ? -1 : rid.getTupleNumber();
+        if (slot < 0 || slot >= slots.size() || slots.get(slot) == null
+                || !rid.getPageId().equals(pid))
+            throw new DbException("Couldn't delete tuple");
+        keepBeforeImage();
+        slots.set(slot, null);
+        emptySlots++;
+        columns = null;
+        trial = null;
+        trialFields = null;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return !dirty ? null : tid;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, as they are when it
+     *         is called (calling remove on it throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(slots.size() - emptySlots);
+        for (Tuple t : slots) {
+            if (t != null)
+                tuples.add(t);
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    /** @return the number of bytes of v as a variable-length unsigned integer */
+    static int varintSize(int v) {
+        int size = 1;
+        while ((v & ~0x7f) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(ByteBuffer buf, int v) {
+        while ((v & ~0x7f) != 0) {
+            buf.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    static int readVarint(ByteBuffer buf) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            v |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return v;
+        }
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * One column of a page, encoded as the values are added, in the order of
+     * their slots. It knows its size in bytes at all times.
+     */
+    private static final class Column {
+        // the dictionary of a string column, index by string
+        private final LinkedHashMap<String, Integer> dict;
+        private int dictBytes;
+        // value and length of each run; values of a string column are
+        // dictionary indices
+        private int[] runValues = new int[8];
+        private int[] runLengths = new int[8];
+        private int runs;
+        // bytes of the runs, but for the length of the last one
+        private int runBytes;
+
+        Column(Type type) {
+            dict = type == Type.STRING_TYPE ? new LinkedHashMap<String, Integer>() : null;
+        }
+
+        private static String stringOf(Field f) {
+            String s = ((StringField) f).getValue();
+            return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+        }
+
+        /** @return the encoded value of f, -1 for a string not in the dictionary */
+        private int valueOf(Field f) {
+            if (dict == null)
+                return ((IntField) f).getValue();
+            Integer index = dict.get(stringOf(f));
+            return index == null ? -1 : index;
+        }
+
+        private int previous() {
+            return runs == 0 ? 0 : runValues[runs - 1];
+        }
+
+        /** @return the number of bytes the column would grow by if f were added */
+        int cost(Field f) {
+            int v = valueOf(f);
+            int cost = 0;
+            if (dict != null && v == -1) {
+                int len = stringOf(f).length();
+                v = dict.size();
+                cost += varintSize(v + 1) - varintSize(v) + varintSize(len) + len;
+            }
+            if (runs > 0 && runValues[runs - 1] == v) {
+                int length = runLengths[runs - 1];
+                return cost + varintSize(length + 1) - varintSize(length);
+            }
+            return cost + varintSize(runs + 1) - varintSize(runs)
+                + varintSize(zigzag(v - previous())) + varintSize(1);
+        }
+
+        void add(Field f) {
+            int v = valueOf(f);
+            if (dict != null && v == -1) {
+                String s = stringOf(f);
+                v = dict.size();
+                dict.put(s, v);
+                dictBytes += varintSize(s.length()) + s.length();
+            }
+            if (runs > 0 && runValues[runs - 1] == v) {
+                runLengths[runs - 1]++;
+                return;
+            }
+            if (runs > 0)
+                runBytes += varintSize(runLengths[runs - 1]);
+            runBytes += varintSize(zigzag(v - previous()));
+            if (runs == runValues.length) {
+                runValues = Arrays.copyOf(runValues, runs * 2);
+                runLengths = Arrays.copyOf(runLengths, runs * 2);
+            }
+            runValues[runs] = v;
+            runLengths[runs] = 1;
+            runs++;
+        }
+
+        int size() {
+            int size = varintSize(runs) + runBytes;
+            if (runs > 0)
+                size += varintSize(runLengths[runs - 1]);
+            if (dict != null)
+                size += varintSize(dict.size()) + dictBytes;
+            return size;
+        }
+
+        void write(ByteBuffer buf) {
+            if (dict != null) {
+                writeVarint(buf, dict.size());
+                for (String s : dict.keySet()) {
+                    writeVarint(buf, s.length());
+                    // one byte per character, as StringField.serialize does
+                    for (int k = 0; k < s.length(); k++)
+                        buf.put((byte) s.charAt(k));
+                }
+            }
+            writeVarint(buf, runs);
+            int previous = 0;
+            for (int r = 0; r < runs; r++) {
+                writeVarint(buf, zigzag(runValues[r] - previous));
+                writeVarint(buf, runLengths[r]);
+                previous = runValues[r];
+            }
+        }
+    }
+}
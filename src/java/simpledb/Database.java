@@ -55,11 +55,21 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, new LruPolicy());
+    }
+
+    /**
+     * Create a new instance of the buffer pool that replaces pages according
+     * to the specified policy, and return it. Scan resistant policies such as
+     * {@link TwoQPolicy} or {@link LruKPolicy} keep frequently requested pages
+     * cached while large sequential scans run.
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
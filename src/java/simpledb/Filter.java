@@ -40,6 +40,9 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {//CHANGES
     	super.open();
+        // read only the pages that may hold tuples that pass
+        if (child instanceof SeqScan)
+            ((SeqScan) child).skipPages(p);
         child.open();
         isOpen = true;
     }
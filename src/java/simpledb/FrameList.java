@@ -0,0 +1,86 @@
+package simpledb;
+
+/**
+ * Intrusive doubly linked list over the frame indices of a BufferPool. Every
+ * frame is on at most one list at a time and all operations are O(1). Used
+ * by the replacement policies to keep frames in recency or arrival order.
+ */
+class FrameList {
+
+    static final int NIL = -1;
+
+    private final int[] prev;
+    private final int[] next;
+    private final boolean[] member;
+    private int head = NIL;
+    private int tail = NIL;
+    private int size = 0;
+
+    FrameList(int numFrames) {
+        prev = new int[numFrames];
+        next = new int[numFrames];
+        member = new boolean[numFrames];
+    }
+
+    /** @return the oldest frame of the list, or NIL if the list is empty. */
+    int head() {
+        return head;
+    }
+
+    /**
+     * @return the oldest frame of the list that is not marked in skip, or NIL
+     *         if there is none.
+     */
+    int head(boolean[] skip) {
+        int frame = head;
+        while (frame != NIL && skip[frame])
+            frame = next[frame];
+        return frame;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int frame) {
+        return member[frame];
+    }
+
+    /** Appends frame, which must not be on the list, as the newest frame. */
+    void addTail(int frame) {
+        prev[frame] = tail;
+        next[frame] = NIL;
+        if (tail == NIL)
+            head = frame;
+        else
+            next[tail] = frame;
+        tail = frame;
+        member[frame] = true;
+        size++;
+    }
+
+    /** Removes frame from the list; does nothing if it is not on it. */
+    void remove(int frame) {
+        if (!member[frame])
+            return;
+        int p = prev[frame], n = next[frame];
+        if (p == NIL)
+            head = n;
+        else
+            next[p] = n;
+        if (n == NIL)
+            tail = p;
+        else
+            prev[n] = p;
+        member[frame] = false;
+        size--;
+    }
+
+    /** Moves frame, which must be on the list, to the newest position. */
+    void moveToTail(int frame) {
+        if (frame == tail)
+            return;
+        remove(frame);
+        addTail(frame);
+    }
+}
@@ -1,16 +1,44 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join: it builds a hash table of the outer
+ * relation and probes it with the inner one. If the outer relation takes
+ * more than the memory budget, its tuples are split into PARTITIONS
+ * partitions by a hash of the join field. The first partition stays in
+ * memory as long as it fits; the others, and the inner tuples that hash to
+ * them, are spilled to temporary files. Each pair of spilled partitions is
+ * then joined the same way with another hash, so a partition that is still
+ * too large is split again. After MAX_LEVELS splits a partition, which by
+ * then holds very few distinct keys, is joined a budget's worth of outer
+ * tuples at a time. Either child is read once, and every spilled tuple once
+ * per split.
+ * <p>
+ * When both join fields are INT fields, the hash table is an
+ * {@link IntHashTable} over arrays of tuples, probed with the key read in
+ * place, rather than a HashMap of lists keyed by the fields.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget, in outer tuples. */
+    public final static int MAP_SIZE = 20000;
+
+    /** The number of partitions the tuples are split into at a time. */
+    static final int PARTITIONS = 16;
+
+    /** The number of times a partition is split at most. */
+    static final int MAX_LEVELS = 3;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryTuples;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -26,9 +54,24 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor. Accepts to children to join, the predicate to join them
+     * on and the number of outer tuples to hold in memory at most.
+     *
+     * @param memoryTuples
+     *            the memory budget, in outer tuples
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int memoryTuples) {
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("the join needs memory for a tuple at least");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -50,32 +93,316 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
+    /** Where the tuples of a step of the join come from. */
+    private interface Source {
+        /** @return the next tuple, null if there is none left */
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    private static Source source(final OpIterator child) {
+        return new Source() {
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.hasNext() ? child.next() : null;
+            }
+        };
+    }
+
+    private static Source source(final SpillFile.Reader reader) {
+        return new Source() {
+            public Tuple next() throws DbException {
+                try {
+                    return reader.next();
+                } catch (IOException e) {
+                    throw new DbException("reading spilled tuples failed: " + e);
+                }
+            }
+        };
+    }
+
+    /** The spilled outer and inner tuples of a partition, still to join. */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
+
+    // the outer tuples in memory by join field, unless they are INT fields,
+    // and the number of outer tuples in memory
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
+    transient private int mapped;
+    // with INT join fields the outer tuples in memory are in outerTuples
+    // instead: ints numbers their keys, first[row] and last[row] are the
+    // first and last tuple with the key of row, and next[i] the tuple after
+    // tuple i with its key, -1 after the last
+    transient private IntHashTable ints;
+    transient private Tuple[] outerTuples;
+    transient private int[] next;
+    transient private int[] first;
+    transient private int[] last;
+    // the inner tuples of the current step
+    transient private Source probe;
+    // the spill file the inner tuples of the current step are read from
+    transient private SpillFile probing;
+    // the partitions of the current step, null if none was spilled; the
+    // tuples of spilled partition i go to buildSpill[i] and probeSpill[i]
+    transient private int level;
+    transient private boolean[] spilled;
+    transient private SpillFile[] buildSpill;
+    transient private SpillFile[] probeSpill;
+    transient private ArrayDeque<Partition> pending = new ArrayDeque<Partition>();
+    // the partition joined a chunk of outer tuples at a time, if any
+    transient private Partition chunked;
+    transient private SpillFile.Reader chunks;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+    /**
+     * Hashes the join field of t to its partition; each level of splitting
+     * hashes differently.
+     */
+    private int partition(Tuple t, int field) {
+        int h = ints != null ? t.getInt(field) : t.getField(field).hashCode();
+        h *= 0x9E3779B1 + 2 * level;
+        return Math.floorMod(h ^ (h >>> 16), PARTITIONS);
+    }
+
+    private void put(Tuple t) {
+        if (ints != null) {
+            if (mapped == outerTuples.length) {
+                outerTuples = Arrays.copyOf(outerTuples, 2 * mapped);
+                next = Arrays.copyOf(next, 2 * mapped);
+            }
+            int rows = ints.size();
+            int row = ints.add(t.getInt(pred.getField1()));
+            if (row == first.length) {
+                first = Arrays.copyOf(first, 2 * row);
+                last = Arrays.copyOf(last, 2 * row);
+            }
+            outerTuples[mapped] = t;
+            next[mapped] = -1;
+            if (row == rows)
+                first[row] = mapped;
+            else
+                next[last[row]] = mapped;
+            last[row] = mapped;
+        } else {
+            ArrayList<Tuple> list = map.get(t.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+                map.put(t.getField(pred.getField1()), list);
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            list.add(t);
+        }
+        mapped++;
+    }
+
+    /** @return the outer tuples in memory */
+    private ArrayList<Tuple> inMemory() {
+        ArrayList<Tuple> all = new ArrayList<Tuple>(mapped);
+        if (ints != null) {
+            for (int i = 0; i < mapped; i++)
+                all.add(outerTuples[i]);
+        } else {
+            for (ArrayList<Tuple> list : map.values())
+                all.addAll(list);
+        }
+        return all;
+    }
+
+    /** Drops the outer tuples in memory. */
+    private void clearMemory() {
+        map.clear();
+        if (ints != null) {
+            ints.clear();
+            Arrays.fill(outerTuples, 0, mapped, null);
+        }
+        mapped = 0;
+    }
+
+    private static void spill(SpillFile[] files, int part, TupleDesc td, Tuple t)
+            throws DbException {
+        try {
+            if (files[part] == null)
+                files[part] = new SpillFile(td);
+            files[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("spilling the join failed: " + e);
+        }
+    }
+
+    /**
+     * Reads the outer tuples of a step of the join into memory, spilling
+     * partitions of them when they do not fit.
+     */
+    private void build(Source source, int level)
+            throws DbException, TransactionAbortedException {
+        this.level = level;
+        clearMemory();
+        spilled = null;
+        buildSpill = null;
+        probeSpill = null;
+        Tuple t;
+        while ((t = source.next()) != null) {
+            if (spilled != null) {
+                int part = partition(t, pred.getField1());
+                if (spilled[part]) {
+                    spill(buildSpill, part, child1.getTupleDesc(), t);
+                    continue;
+                }
+            }
+            put(t);
+            if (mapped > memoryTuples)
+                overflow();
+        }
+    }
+
+    /**
+     * Spills every partition but the first, or the first too if it alone
+     * takes more than the budget.
+     */
+    private void overflow() throws DbException {
+        if (spilled == null) {
+            spilled = new boolean[PARTITIONS];
+            Arrays.fill(spilled, 1, PARTITIONS, true);
+            buildSpill = new SpillFile[PARTITIONS];
+            probeSpill = new SpillFile[PARTITIONS];
+        } else {
+            spilled[0] = true;
+        }
+        ArrayList<Tuple> all = inMemory();
+        clearMemory();
+        for (Tuple t : all) {
+            int part = partition(t, pred.getField1());
+            if (spilled[part])
+                spill(buildSpill, part, child1.getTupleDesc(), t);
+            else
+                put(t);
+        }
+    }
+
+    /** Reads the next chunk of outer tuples of the chunked partition. */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        clearMemory();
+        Source source = source(chunks);
+        Tuple t;
+        while (mapped < memoryTuples && (t = source.next()) != null)
+            put(t);
+        return mapped > 0;
+    }
+
+    /**
+     * Moves on to the next step of the join once the inner tuples of the
+     * current one are exhausted.
+     *
+     * @return false if the join is done
+     */
+    private boolean nextStep() throws DbException, TransactionAbortedException {
+        try {
+            if (chunked != null) {
+                if (loadChunk()) {
+                    probe = source(chunked.probe.read());
+                    return true;
+                }
+                chunked.build.delete();
+                chunked.probe.delete();
+                chunked = null;
+                chunks = null;
+            }
+            if (probing != null) {
+                probing.delete();
+                probing = null;
+            }
+            if (spilled != null) {
+                for (int i = 0; i < PARTITIONS; i++) {
+                    if (buildSpill[i] == null)
+                        continue;
+                    if (probeSpill[i] != null)
+                        pending.add(new Partition(buildSpill[i], probeSpill[i], level + 1));
+                    else
+                        buildSpill[i].delete();
+                }
+                spilled = null;
+            }
+
+            Partition next = pending.poll();
+            if (next == null)
+                return false;
+            if (next.level > MAX_LEVELS) {
+                // a split more would not help
+                chunked = next;
+                chunks = next.build.read();
+                loadChunk();
+                probe = source(next.probe.read());
                 return true;
+            }
+            build(source(next.build.read()), next.level);
+            next.build.delete();
+            probing = next.probe;
+            probe = source(next.probe.read());
+            return true;
+        } catch (IOException e) {
+            throw new DbException("reading spilled tuples failed: " + e);
+        }
+    }
+
+    /** Starts the join over, from the first tuples of the children. */
+    private void start() throws DbException, TransactionAbortedException {
+        boolean intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+            && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        if (!intKeys) {
+            ints = null;
+        } else if (ints == null) {
+            ints = new IntHashTable();
+            outerTuples = new Tuple[16];
+            next = new int[16];
+            first = new int[16];
+            last = new int[16];
         }
-        return cnt > 0;
+        discard();
+        build(source(child1), 0);
+        probe = source(child2);
+    }
 
+    /** Removes the spill files of the join. */
+    private void discard() {
+        if (spilled != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildSpill[i] != null)
+                    buildSpill[i].delete();
+                if (probeSpill[i] != null)
+                    probeSpill[i].delete();
+            }
+            spilled = null;
+        }
+        for (Partition part : pending) {
+            part.build.delete();
+            part.probe.delete();
+        }
+        pending.clear();
+        if (chunked != null) {
+            chunked.build.delete();
+            chunked.probe.delete();
+            chunked = null;
+            chunks = null;
+        }
+        if (probing != null) {
+            probing.delete();
+            probing = null;
+        }
+        clearMemory();
+        listIt = null;
+        match = -1;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
@@ -85,16 +412,18 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        discard();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
+    // the next outer tuple in outerTuples that matches t2, -1 if none
+    transient private int match = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,7 +444,12 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        if (match != -1) {
+            t1 = outerTuples[match];
+            match = next[match];
+        } else {
+            t1 = listIt.next();
+        }
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,32 +465,43 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (match != -1 || (listIt != null && listIt.hasNext()))
+                return processList();
+            listIt = null;
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            Tuple t = probe.next();
+            if (t == null) {
+                if (!nextStep())
+                    return null;
+                continue;
+            }
+            if (spilled != null) {
+                int part = partition(t, pred.getField2());
+                if (spilled[part]) {
+                    // without outer tuples in the partition, t matches none
+                    if (buildSpill[part] != null)
+                        spill(probeSpill, part, child2.getTupleDesc(), t);
+                    continue;
+                }
+            }
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            if (ints != null) {
+                int row = ints.get(t.getInt(pred.getField2()));
+                if (row != -1) {
+                    t2 = t;
+                    match = first[row];
+                }
+            } else {
+                ArrayList<Tuple> l = map.get(t.getField(pred.getField2()));
+                if (l != null) {
+                    t2 = t;
+                    listIt = l.iterator();
+                }
+            }
         }
-
-        return null;
     }
 
     @Override
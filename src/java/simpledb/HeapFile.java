@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -14,10 +15,33 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** Pages appended by each write of {@link #appendTuples}. */
+    static final int APPEND_BATCH = 64;
+
+    /** Pages at the end of the file each transaction of {@link #compact} empties. */
+    static final int COMPACT_BATCH = 8;
+
 	//CHANGES
 	File f;
 	TupleDesc td;
 	int id;
+	final PageChannel channel;
+	// number of pages, kept up to date by writePage and numPages() so that
+	// inserts need not ask the file system
+	private int pageCount = -1;
+	// read pages out of a mapping of the file instead of copying them
+	private volatile boolean mapped;
+	// set once a page was read from the mapping, which may still cover the
+	// end of the file, so the file must not be cut short any more
+	private volatile boolean wasMapped;
+	// free-space map: the pages that may have room for a tuple, among the
+	// first freeSpaceCovered pages. It is a hint only: pages are let go of
+	// once insertTuple finds no tuple would fit on them, and taken back when
+	// a tuple is deleted.
+	private final BitSet freeSpace = new BitSet();
+	private int freeSpaceCovered;
+	// per-page ranges of the INT columns; null if there are none
+	private final ZoneMap zones;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -30,6 +54,8 @@ public class HeapFile implements DbFile {
         this.f = f;
         this.td = td;
         this.id = f.getAbsoluteFile().hashCode();
+        this.channel = new PageChannel(f);
+        this.zones = ZoneMap.forFile(f, td);
     }
 
     /**
@@ -63,6 +89,32 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Makes readPage copy pages out of a read-only mapping of the file
+     * rather than reading them from the file. Meant for large tables that
+     * are mostly read: scans then cost no system call per page, and the
+     * operating system's page cache holds the table. Each page still gets
+     * its own copy of its bytes, so tuples already returned do not change
+     * when the page is written back. Writes still go to the file as usual.
+     * Once a page has been read this way, {@link #compact} no longer cuts
+     * the file short.
+     */
+    public void setMapped(boolean mapped) {
+        if (mapped)
+            wasMapped = true;
+        this.mapped = mapped;
+    }
+
+    /** @return true if pages are read from a mapping of the file */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /** @return the zone map of this file, null if the table has no INT column */
+    ZoneMap getZoneMap() {
+        return zones;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {//CHANGES
     	int pageSize = BufferPool.getPageSize();
@@ -71,17 +123,22 @@ public class HeapFile implements DbFile {
         try 
         {
         	HeapPageId hpid = new HeapPageId(getId(), pageNumber);
-        	
-        	RandomAccessFile raf = new RandomAccessFile(f, "r");
-        	
-        	long offset = pageSize * pageNumber;
-        	byte[] buffer = new byte[pageSize];
-        	
-        	raf.seek(offset);
-        	raf.read(buffer,0,pageSize);//buffer, byteOffset, byteCount
-        	raf.close();
-        	
-        	return new HeapPage(hpid, buffer);
+        	TuplePage page = null;
+        	if (mapped) {
+        		ByteBuffer slice = channel.slice((long) pageSize * pageNumber, pageSize);
+        		if (slice != null)
+        			page = newPage(hpid, new ByteBufferInputStream(slice));
+        	}
+        	if (page == null) {
+        		// pages past the end of the file read as empty pages
+        		byte[] buffer = PageChannel.buffer(pageSize);
+        		channel.read((long) pageSize * pageNumber, buffer);
+        		page = newPage(hpid, new ByteArrayInputStream(buffer));
+        	}
+        	// learn the ranges of pages written before there was a zone map
+        	if (zones != null && !zones.isKnown(pageNumber))
+        		zones.include(page);
+        	return page;
         }
         catch(IOException e) 
         {
@@ -91,21 +148,55 @@ public class HeapFile implements DbFile {
     	return null;
     }
 
+    /**
+     * Creates page pid of this file from its bytes, as read from in. This
+     * is the only place that knows the format of the pages of the file.
+     */
+    TuplePage newPage(HeapPageId pid, InputStream in) throws IOException {
+        return new HeapPage(pid, in);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException { //CHANGES
-        try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
-            file.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
-            file.write(page.getPageData());
-        } catch (Exception e) {
-            throw new IOException("write failed");
+        int pageNumber = page.getId().getPageNumber();
+        describe((TuplePage) page);
+        channel.write((long) pageNumber * BufferPool.getPageSize(), page.getPageData());
+        synchronized (this) {
+            if (pageCount != -1 && pageNumber >= pageCount)
+                pageCount = pageNumber + 1;
+        }
+    }
+
+    /**
+     * Makes the zone map cover the tuples of page and writes its range out,
+     * ahead of the page itself.
+     */
+    private void describe(TuplePage page) throws IOException {
+        if (zones != null) {
+            zones.include(page);
+            zones.persist(page.getId().getPageNumber());
         }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. This asks the file itself,
+     * so pages appended to it behind the HeapFile's back are counted too.
      */
     public int numPages() {//CHANGES
-        return (int)(f.length() / BufferPool.getPageSize());
+        try {
+            int pages = (int) (channel.size() / BufferPool.getPageSize());
+            synchronized (this) {
+                pageCount = pages;
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the number of pages, without asking the file system once known */
+    synchronized int pageCount() {
+        return pageCount != -1 ? pageCount : numPages();
     }
 
     // see DbFile.java for javadocs
@@ -113,39 +204,365 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException { // CHANGES
         ArrayList<Page> writtenPages = new ArrayList<>();
 
-        for(int i = 0; i < this.numPages(); ++i){
+        BufferPool pool = Database.getBufferPool();
+        TuplePage page = pageWithRoom(tid, t, Integer.MAX_VALUE);
+        if (page != null) {
+            put(tid, page, t);
+            writtenPages.add(page);
+            return writtenPages;
+        }
+
+        while (true) {
+            HeapPageId hpid = new HeapPageId(getId(), pageCount());
+            boolean held = pool.holdsLock(tid, hpid);
+            TuplePage blank = (TuplePage) pool.getPage(tid, hpid, Permissions.READ_WRITE);
+            if (!blank.hasRoomFor(t)) {
+                boolean appended = blank.iterator().hasNext()
+                        || pageCount() != hpid.getPageNumber();
+                if (!held)
+                    pool.releasePage(tid, hpid);
+                if (!appended)
+                    throw new DbException("tuple does not fit on an empty page");
+                // appended by the transaction we waited for, e.g. a bulk load
+                if (!blank.hasRoom())
+                    noFreeSpace(hpid.getPageNumber());
+                continue;
+            }
+            writePage(blank);
+
+            TuplePage newPage = (TuplePage) pool.getPage(tid, hpid, Permissions.READ_WRITE);
+            newPage.insertTuple(t);
+            newPage.markDirty(true, tid);
+            if (zones != null)
+                zones.include(hpid.getPageNumber(), t);
+            writtenPages.add(newPage);
+
+            return writtenPages;
+        }
+    }
+
+    /**
+     * @return a page before page limit with room for t, locked exclusively
+     *         for tid, or null if there is none
+     */
+    private TuplePage pageWithRoom(TransactionId tid, Tuple t, int limit)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        for (int i = nextFreePage(0); i != -1 && i < limit; i = nextFreePage(i + 1)) {
             HeapPageId hpid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+            // lock exclusively right away: two inserters that both held a
+            // shared lock on the page would deadlock upgrading it
+            boolean held = pool.holdsLock(tid, hpid);
+            TuplePage page = (TuplePage) pool.getPage(tid, hpid, Permissions.READ_WRITE);
+
+            if (page.hasRoomFor(t))
+                return page;
+            // a shorter tuple may still fit
+            if (!page.hasRoom())
+                noFreeSpace(i);
+            // nothing was read from the page, so giving the lock up
+            // early cannot break two-phase locking
+            if (!held)
+                pool.releasePage(tid, hpid);
+        }
+        return null;
+    }
 
-            if (page.getNumEmptySlots() != 0) {
-                page.insertTuple(t);
+    /** Inserts t into page, which has room for it, for tid. */
+    private void put(TransactionId tid, TuplePage page, Tuple t) throws DbException {
+        int i = page.getId().getPageNumber();
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        if (zones != null)
+            zones.include(i, t);
+        if (!page.hasRoom())
+            noFreeSpace(i);
+    }
+
+    /**
+     * Compacts the file while other transactions go on using it: moves the
+     * tuples of the last pages into free slots of earlier pages, then cuts
+     * the emptied pages off the end of the file. Each transaction it runs
+     * empties at most COMPACT_BATCH pages, so that it never holds many locks
+     * for long. A moved tuple is inserted anew, with a new RecordId.
+     * <p>
+     * It stops once no tuple of the last page fits on an earlier one, or if
+     * one of its transactions is aborted, e.g. to break a deadlock; calling
+     * it again picks up from there. A mapped file is not cut short, as
+     * readers may still be using a mapping of its end; its empty pages are
+     * left for inserts to fill.
+     *
+     * @return the number of tuples moved
+     */
+    public int compact() throws DbException, IOException {
+        int moved = 0;
+        while (true) {
+            Transaction xact = new Transaction();
+            xact.start();
+            try {
+                int n = moveTail(xact.getId());
+                xact.commit();
+                moved += n;
+
+                xact = new Transaction();
+                xact.start();
+                cutTail(xact.getId());
+                xact.commit();
+                if (n == 0)
+                    return moved;
+            } catch (TransactionAbortedException e) {
+                xact.abort();
+                return moved;
+            }
+        }
+    }
+
+    /**
+     * Moves the tuples of up to COMPACT_BATCH of the last pages that are not
+     * empty to earlier pages, for tid, as long as they fit there.
+     *
+     * @return the number of tuples moved
+     */
+    private int moveTail(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        int moved = 0;
+        int emptied = 0;
+        for (int source = pageCount() - 1; source > 0 && emptied < COMPACT_BATCH; source--) {
+            TuplePage page = (TuplePage) pool.getPage(tid, new HeapPageId(getId(), source),
+                    Permissions.READ_WRITE);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                tuples.add(it.next());
+            if (tuples.isEmpty())
+                continue;
+            for (Tuple t : tuples) {
+                Tuple copy = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    copy.setField(j, t.getField(j));
+                TuplePage target = pageWithRoom(tid, copy, source);
+                if (target == null)
+                    return moved;
+                put(tid, target, copy);
+                page.deleteTuple(t);
                 page.markDirty(true, tid);
-                writtenPages.add(page);
-                return writtenPages;
+                // the page may be left half full when the earlier ones fill up
+                slotFreed(source);
+                moved++;
             }
+            emptied++;
         }
+        return moved;
+    }
 
-        HeapPageId hpid = new HeapPageId(getId(), this.numPages());
-        HeapPage blank = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
-        writePage(blank);
+    /**
+     * Cuts the empty pages at the end of the file off it, locking them for
+     * tid first. A page that is not in the file any more reads as empty, so
+     * scans that counted it are not disturbed.
+     */
+    private void cutTail(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        BufferPool pool = Database.getBufferPool();
+        int pages = pageCount();
+        int keep = pages;
+        while (keep > 0) {
+            HeapPageId pid = new HeapPageId(getId(), keep - 1);
+            TuplePage page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.isDirty() != null || page.iterator().hasNext())
+                break;
+            keep--;
+        }
+        if (keep == pages)
+            return;
+        if (wasMapped) {
+            synchronized (freeSpace) {
+                freeSpace.set(keep, Math.min(pages, freeSpaceCovered));
+            }
+            return;
+        }
+
+        for (int i = keep; i < pages; i++)
+            pool.discardPage(new HeapPageId(getId(), i));
+        channel.truncate((long) keep * BufferPool.getPageSize());
+        if (zones != null)
+            zones.truncate(keep);
+        synchronized (this) {
+            pageCount = keep;
+        }
+        synchronized (freeSpace) {
+            freeSpace.clear(keep, Math.max(keep, freeSpaceCovered));
+            freeSpaceCovered = Math.min(freeSpaceCovered, keep);
+        }
+    }
 
-        HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
-        newPage.insertTuple(t);
-        newPage.markDirty(true, tid);
-        writtenPages.add(newPage);
+    /**
+     * Bulk-load path of {@link Insert}: fills new pages with the tuples of
+     * child in memory and appends them to the end of the file,
+     * APPEND_BATCH pages per write, instead of inserting the tuples one at a
+     * time through the BufferPool. The appended pages are locked exclusively
+     * by tid, so no other transaction sees them before tid commits. The file
+     * is forced to disk once the last page is written, since the log only
+     * records where the pages went.
+     *
+     * @see BufferPool#appendPages
+     * @return the number of tuples appended
+     */
+    int appendTuples(TransactionId tid, OpIterator child)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Page> batch = new ArrayList<Page>(APPEND_BATCH);
+        byte[] empty = HeapPage.createEmptyPageData();
+        TuplePage page = null;
+        int count = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (page == null || !page.hasRoomFor(t)) {
+                int last = -1;
+                if (page != null) {
+                    last = page.getId().getPageNumber();
+                    batch.add(page);
+                    if (batch.size() == APPEND_BATCH) {
+                        append(tid, pool, batch);
+                        batch.clear();
+                    }
+                }
+                page = newPage(reserveAppend(tid, last), new ByteArrayInputStream(empty));
+            }
+            page.insertTuple(t);
+            count++;
+        }
+        if (page != null)
+            batch.add(page);
+        if (!batch.isEmpty())
+            append(tid, pool, batch);
+        if (count > 0)
+            channel.force();
+        return count;
+    }
 
-        return writtenPages;
+    /**
+     * Appends batch for tid. Every page of it was filled until the next
+     * tuple did not fit, except the last one of the load; a shorter tuple
+     * may still fit on any of them.
+     */
+    private void append(TransactionId tid, BufferPool pool, ArrayList<Page> batch)
+            throws IOException {
+        pool.appendPages(tid, this, batch);
+        synchronized (freeSpace) {
+            // spare the next insert a visit to each full page
+            for (Page page : batch) {
+                int n = page.getId().getPageNumber();
+                if (n == freeSpaceCovered)
+                    freeSpaceCovered++;
+                if (n < freeSpaceCovered)
+                    freeSpace.set(n, ((TuplePage) page).hasRoom());
+            }
+        }
+    }
+
+    /**
+     * Locks a page for tid that lies past the end of the file and past page
+     * after, so that nobody else appends it.
+     */
+    private HeapPageId reserveAppend(TransactionId tid, int after)
+            throws TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        while (true) {
+            HeapPageId pid = new HeapPageId(getId(), Math.max(pageCount(), after + 1));
+            boolean held = pool.holdsLock(tid, pid);
+            pool.lockPage(tid, pid, Permissions.READ_WRITE);
+            // the transaction we waited for may have appended it
+            if (pid.getPageNumber() >= pageCount())
+                return pid;
+            if (!held)
+                pool.releasePage(tid, pid);
+            after = pid.getPageNumber();
+        }
+    }
+
+    /**
+     * Undoes an append of {@link #appendTuples} by overwriting numPages pages
+     * from first on with empty ones.
+     */
+    void emptyPages(int first, int numPages) throws IOException {
+        byte[] empty = HeapPage.createEmptyPageData();
+        ArrayList<Page> pages = new ArrayList<Page>(numPages);
+        for (int i = 0; i < numPages; i++)
+            pages.add(newPage(new HeapPageId(getId(), first + i), new ByteArrayInputStream(empty)));
+        writePages(pages);
+        synchronized (freeSpace) {
+            if (first < freeSpaceCovered)
+                freeSpace.set(first, Math.min(first + numPages, freeSpaceCovered));
+        }
+    }
+
+    /**
+     * Writes pages to the file, each run of consecutive pages with a single
+     * write.
+     */
+    void writePages(List<Page> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int i = 0;
+        while (i < pages.size()) {
+            int first = pages.get(i).getId().getPageNumber();
+            int j = i + 1;
+            while (j < pages.size() && pages.get(j).getId().getPageNumber() == first + j - i)
+                j++;
+            byte[] run = new byte[(j - i) * pageSize];
+            for (int k = i; k < j; k++) {
+                describe((TuplePage) pages.get(k));
+                System.arraycopy(pages.get(k).getPageData(), 0, run, (k - i) * pageSize, pageSize);
+            }
+            channel.write((long) first * pageSize, run);
+            synchronized (this) {
+                if (pageCount != -1 && first + j - i > pageCount)
+                    pageCount = first + j - i;
+            }
+            i = j;
+        }
     }
 
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException { //CHANGES
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        slotFreed(page.getId().getPageNumber());
         return new ArrayList<>(Collections.singletonList(page));
     }
 
+    /** Notes in the free-space map that a slot of page pageNumber was freed. */
+    private void slotFreed(int pageNumber) {
+        synchronized (freeSpace) {
+            freeSpace.set(pageNumber);
+        }
+    }
+
+    /**
+     * @return the first page at or after from that may have an empty slot,
+     *         or -1 if there is none. Pages the free-space map has not seen
+     *         yet, such as every page the first time it is asked after the
+     *         file is opened, may have one.
+     */
+    private int nextFreePage(int from) {
+        int pages = pageCount();
+        synchronized (freeSpace) {
+            if (freeSpaceCovered < pages) {
+                freeSpace.set(freeSpaceCovered, pages);
+                freeSpaceCovered = pages;
+            }
+            int next = freeSpace.nextSetBit(from);
+            return next < pages ? next : -1;
+        }
+    }
+
+    private void noFreeSpace(int pageNumber) {
+        synchronized (freeSpace) {
+            freeSpace.clear(pageNumber);
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {//CHANGES
         return new HeapFileIterator(numPages(),id, tid);
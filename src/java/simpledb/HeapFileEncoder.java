@@ -1,7 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +19,9 @@ import java.util.ArrayList;
 
 public class HeapFileEncoder {
 
+  /** The number of pages of output a thread of the parallel convert encodes at a time. */
+  static final int PAGES_PER_BATCH = 16;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -106,6 +115,17 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the zone map of the output, written along with it; see ZoneMap
+    File zoneFile = new File(outFile.getPath() + ZoneMap.SUFFIX);
+    DataOutputStream zones = null;
+    int[] mins = new int[numFields];
+    int[] maxs = new int[numFields];
+    Arrays.fill(mins, Integer.MAX_VALUE);
+    Arrays.fill(maxs, Integer.MIN_VALUE);
+    if (Arrays.asList(typeAr).subList(0, numFields).contains(Type.INT_TYPE))
+        zones = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(zoneFile)));
+    else
+        zoneFile.delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -140,7 +160,10 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    mins[fieldNo] = Math.min(mins[fieldNo], v);
+                    maxs[fieldNo] = Math.max(maxs[fieldNo], v);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -209,6 +232,11 @@ public class HeapFileEncoder {
             headerBAOS.writeTo(os);
             pageStream.flush();
             pageBAOS.writeTo(os);
+            if (zones != null) {
+                ZoneMap.writeRecord(zones, typeAr, mins, maxs);
+                Arrays.fill(mins, Integer.MAX_VALUE);
+                Arrays.fill(maxs, Integer.MIN_VALUE);
+            }
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -222,5 +250,231 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    if (zones != null)
+        zones.close();
+  }
+
+  /** Convert the specified input text file into a binary page file, like
+   * {@link #convert(File, File, int, int, Type[], char)}, on nthreads threads.
+   * <p>
+   * The input is cut at line boundaries into batches of lines that fill
+   * PAGES_PER_BATCH pages, which threads of a pool parse and encode; the
+   * pages are written out in order as their batches complete. At most two
+   * batches per thread are held at a time, so memory use does not grow with
+   * the size of the input. The output is the one convert writes, except on
+   * malformed input: a last line without a line break is kept, and a field
+   * that is not a number or is missing is stored as 0 or "".
+   *
+   * @param nthreads the number of threads that parse the input
+   * @throws IOException if the input/output file can't be opened or read
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int nthreads)
+      throws IOException {
+    PageEncoder encoder = new PageEncoder(npagebytes, numFields, typeAr, fieldSeparator);
+    int batchRecords = PAGES_PER_BATCH * encoder.nrecords;
+
+    File zoneFile = new File(outFile.getPath() + ZoneMap.SUFFIX);
+    if (!encoder.hasInts)
+        zoneFile.delete();
+
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    // batches being encoded or waiting to be written, in input order
+    ArrayDeque<Future<byte[][]>> pending = new ArrayDeque<Future<byte[][]>>();
+    FileChannel in = null, out = null, zones = null;
+    try {
+        in = new FileInputStream(inFile).getChannel();
+        out = new FileOutputStream(outFile).getChannel();
+        if (encoder.hasInts)
+            zones = new FileOutputStream(zoneFile).getChannel();
+
+        ByteBuffer block = ByteBuffer.allocate(1 << 16);
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int lines = 0;
+        boolean blank = true;
+        boolean any = false;
+        int n;
+        while ((n = in.read(block)) != -1) {
+            byte[] bytes = block.array();
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '\n') {
+                    if (blank)
+                        continue;
+                    blank = true;
+                    if (++lines == batchRecords) {
+                        batch.write(bytes, start, i + 1 - start);
+                        start = i + 1;
+                        submit(pool, pending, encoder, batch.toByteArray(), lines, false,
+                                2 * nthreads, out, zones);
+                        any = true;
+                        batch.reset();
+                        lines = 0;
+                    }
+                } else if (bytes[i] != '\r') {
+                    blank = false;
+                }
+            }
+            batch.write(bytes, start, n - start);
+            block.clear();
+        }
+        if (!blank)
+            lines++;
+        // an empty input still makes a page
+        submit(pool, pending, encoder, batch.toByteArray(), lines, !any, 0, out, zones);
+    } finally {
+        pool.shutdownNow();
+        if (in != null)
+            in.close();
+        if (out != null)
+            out.close();
+        if (zones != null)
+            zones.close();
+    }
+  }
+
+  /**
+   * Hands a batch of lines to pool, after writing out the oldest batches
+   * until fewer than limit are pending.
+   */
+  private static void submit(ExecutorService pool, ArrayDeque<Future<byte[][]>> pending,
+          final PageEncoder encoder, final byte[] text, final int records, final boolean emptyPage,
+          int limit, FileChannel out, FileChannel zones) throws IOException {
+    pending.add(pool.submit(new Callable<byte[][]>() {
+        public byte[][] call() throws IOException {
+            return encoder.encode(text, records, emptyPage);
+        }
+    }));
+    while (pending.size() > limit) {
+        byte[][] done;
+        try {
+            done = pending.remove().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        writeFully(out, done[0]);
+        if (zones != null)
+            writeFully(zones, done[1]);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, byte[] data) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(data);
+    while (buf.hasRemaining())
+        channel.write(buf);
+  }
+
+  /** Encodes batches of text lines as heap pages and their zone records. */
+  private static class PageEncoder {
+    final int npagebytes;
+    final int numFields;
+    final Type[] typeAr;
+    final char fieldSeparator;
+    final int nrecbytes;
+    final int nrecords;
+    final int nheaderbytes;
+    final boolean hasInts;
+
+    PageEncoder(int npagebytes, int numFields, Type[] typeAr, char fieldSeparator) {
+        this.npagebytes = npagebytes;
+        this.numFields = numFields;
+        this.typeAr = typeAr;
+        this.fieldSeparator = fieldSeparator;
+        int nrecbytes = 0;
+        for (int i = 0; i < numFields; i++)
+            nrecbytes += typeAr[i].getLen();
+        this.nrecbytes = nrecbytes;
+        this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        this.nheaderbytes = (nrecords + 7) / 8;
+        this.hasInts = Arrays.asList(typeAr).subList(0, numFields).contains(Type.INT_TYPE);
+    }
+
+    /**
+     * @param text whole lines of input, holding records non-blank ones
+     * @param emptyPage whether to make a page even if there are no records
+     * @return the pages of the records and their zone records, in the
+     *         formats of HeapPage and ZoneMap
+     */
+    byte[][] encode(byte[] text, int records, boolean emptyPage) throws IOException {
+        int npages = (records + nrecords - 1) / nrecords;
+        if (npages == 0 && emptyPage)
+            npages = 1;
+        ByteBuffer pages = ByteBuffer.allocate(npages * npagebytes);
+        ByteArrayOutputStream zoneBAOS = new ByteArrayOutputStream();
+        DataOutputStream zoneStream = new DataOutputStream(zoneBAOS);
+        int[] mins = new int[numFields];
+        int[] maxs = new int[numFields];
+
+        // decoded the way the FileReader of convert decodes
+        String s = new String(text, Charset.defaultCharset());
+        int pos = 0;
+        for (int page = 0; page < npages; page++) {
+            int base = page * npagebytes;
+            int count = Math.min(nrecords, records - page * nrecords);
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+            pages.position(base + nheaderbytes);
+            for (int r = 0; r < count; r++) {
+                pages.put(base + r / 8, (byte) (pages.get(base + r / 8) | (1 << (r % 8))));
+                // skip blank lines
+                int end;
+                while (true) {
+                    end = s.indexOf('\n', pos);
+                    if (end == -1)
+                        end = s.length();
+                    if (!isBlank(s, pos, end))
+                        break;
+                    pos = end + 1;
+                }
+                putRecord(pages, s, pos, end, mins, maxs);
+                pos = end + 1;
+            }
+            if (hasInts)
+                ZoneMap.writeRecord(zoneStream, typeAr, mins, maxs);
+        }
+        zoneStream.flush();
+        return new byte[][] { pages.array(), zoneBAOS.toByteArray() };
+    }
+
+    private static boolean isBlank(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) != '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /** Encodes the line s[from, to) at the position of pages. */
+    private void putRecord(ByteBuffer pages, String s, int from, int to, int[] mins, int[] maxs) {
+        int start = from;
+        for (int fieldNo = 0; fieldNo < numFields; fieldNo++) {
+            int end = start;
+            while (end < to && s.charAt(end) != fieldSeparator)
+                end++;
+            String field = start <= to ? s.substring(start, end).trim() : "";
+            start = end + 1;
+            if (typeAr[fieldNo] == Type.INT_TYPE) {
+                int v = 0;
+                try {
+                    v = Integer.parseInt(field);
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + field);
+                }
+                pages.putInt(v);
+                mins[fieldNo] = Math.min(mins[fieldNo], v);
+                maxs[fieldNo] = Math.max(maxs[fieldNo], v);
+            } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+                if (field.length() > Type.STRING_LEN)
+                    field = field.substring(0, Type.STRING_LEN);
+                pages.putInt(field.length());
+                for (int i = 0; i < Type.STRING_LEN; i++)
+                    pages.put(i < field.length() ? (byte) field.charAt(i) : 0);
+            }
+        }
+    }
   }
 }
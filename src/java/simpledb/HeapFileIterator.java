@@ -14,8 +14,12 @@ public class HeapFileIterator implements DbFileIterator {
 	
 	Iterator<Tuple> i;
 	int currPageNumber;
-	HeapPage hp;
+	TuplePage hp;
 	HeapPageId hpid;
+	ReadAhead readAhead;
+	// pages whose zone cannot satisfy skipPredicate are not read
+	ZoneMap zones;
+	Predicate skipPredicate;
 
     public HeapFileIterator(int pagesCount, int id, TransactionId tid) {
         this.pagesCount = pagesCount;
@@ -23,31 +27,62 @@ public class HeapFileIterator implements DbFileIterator {
         this.tid = tid;
     }
 
+    /**
+     * Makes the iterator skip the pages that zones shows hold no tuple
+     * satisfying p, a predicate over an INT field of the table. Tuples of
+     * the pages read are returned whether they satisfy p or not.
+     */
+    void skipPages(ZoneMap zones, Predicate p) {
+        this.zones = zones;
+        this.skipPredicate = p;
+    }
+
+    /** @return the first page from page on that is not skipped, pagesCount if none */
+    private int nextPage(int page) {
+        if (zones == null)
+            return page;
+        int value = ((IntField) skipPredicate.getOperand()).getValue();
+        while (page < pagesCount
+                && !zones.mayMatch(page, skipPredicate.getField(), skipPredicate.getOp(), value))
+            page++;
+        return page;
+    }
+
     @Override
     public void open() throws TransactionAbortedException, DbException {
-    	currPageNumber = 0;
+        readAhead = new ReadAhead() {
+            PageId next(Page page) {
+                int next = nextPage(page.getId().getPageNumber() + 1);
+                return next < pagesCount ? new HeapPageId(id, next) : null;
+            }
+        };
+    	currPageNumber = nextPage(0);
+    	if (currPageNumber >= pagesCount && pagesCount > 0) {
+    	    // every page is skipped
+    	    i = Collections.<Tuple>emptyList().iterator();
+    	    return;
+    	}
         hpid = new HeapPageId(id, currPageNumber);
-        hp = (HeapPage)Database.getBufferPool().getPage(tid, hpid, null);
+        hp = (TuplePage)Database.getBufferPool().getPage(tid, hpid, null);
         i = hp.iterator();
+        readAhead.advance(hp);
     }
 
     @Override
     public boolean hasNext() throws TransactionAbortedException, DbException {
     	if(i == null) return false;
-        if(i.hasNext()) return true;
-
-        if(currPageNumber+1 >= pagesCount) return false;
-
-        HeapPageId tempHPI = new HeapPageId(id, currPageNumber+1);
-        HeapPage tempHP = (HeapPage)Database.getBufferPool().getPage(tid, tempHPI, null);
-        
-        return tempHP.getNumEmptySlots() < tempHP.numSlots;
+        // move past pages without tuples
+        while(!i.hasNext()) {
+            if(nextPage(currPageNumber+1) >= pagesCount) return false;
+            goToNextPage();
+        }
+        return true;
     }
 
     @Override
     public Tuple next() throws TransactionAbortedException, DbException {
     	if(i == null) throw new NoSuchElementException("iterator wasn't open");
-        if(!i.hasNext()) goToNextPage();
+        if(!hasNext()) throw new NoSuchElementException("no more tuples");
     	return i.next();
     }
 
@@ -64,16 +99,18 @@ public class HeapFileIterator implements DbFileIterator {
         hpid = null;
         hp = null;
         i = null;
+        readAhead = null;
     }
     
     private void goToNextPage() throws TransactionAbortedException, DbException {
-    	currPageNumber++;
+    	currPageNumber = nextPage(currPageNumber + 1);
     	
         //this shouldn't happen
     	if(currPageNumber >= pagesCount) throw new NoSuchElementException(String.format("Page number %d is out of range", currPageNumber));
         
     	hpid = new HeapPageId(id, currPageNumber);
-        hp = (HeapPage)Database.getBufferPool().getPage(tid, hpid, null);
+        hp = (TuplePage)Database.getBufferPool().getPage(tid, hpid, null);
         i = hp.iterator();
+        readAhead.advance(hp);
     }
 }
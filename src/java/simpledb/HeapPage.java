@@ -11,20 +11,32 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // the tuples decoded so far; the other used slots are still only in data
     final Tuple tuples[];
     final int numSlots;
+    // the bytes the page was created from; never modified, so that they can
+    // double as the before image
+    private final byte[] data;
+    // reads the tuples of data in place
+    private final PageBuffer buffer;
+    // number of empty slots, -1 until counted
+    private int emptySlots = -1;
+    // no slot before this one is empty
+    private int firstFree;
     TransactionId tid;
     
     //CHANGES
     private boolean dirty = false;
 
+    // the before image; null while the page is as it was when the image
+    // was set, so that it is only copied when the page is first changed
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -43,27 +55,48 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        // data may be a buffer the caller reuses, e.g. PageChannel's
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from the bytes of a page as they are read from in,
+     * e.g. a slice of a mapped file, into an array of its own: tuples that
+     * are only decoded later must not see the page being written back.
+     */
+    HeapPage(HeapPageId id, InputStream in) throws IOException {
+        this(id, readFully(in), true);
+    }
+
+    /**
+     * Create a HeapPage that keeps the bytes of data, or data itself if it
+     * is owned, i.e. nobody will modify it afterwards. Tuples are decoded
+     * from them only when they are first asked for.
+     */
+    private HeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = owned ? data : Arrays.copyOf(data, BufferPool.getPageSize());
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        header = Arrays.copyOf(this.data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        buffer = new PageBuffer(java.nio.ByteBuffer.wrap(this.data), td, header.length);
+
+        // the page as read is its own before image
+        synchronized(oldDataLock)
+        {
+            oldData = this.data;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        DataInputStream dis = new DataInputStream(in);
+        dis.readFully(data);
+        dis.close();
+        return data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -97,7 +130,10 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            // unchanged since the before image was set
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new HeapPage(pid,oldDataRef,true);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,9 +143,19 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        // the page as it is stays the before image until it is changed
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    /** Copies the page into its before image before its first change. */
+    private void keepBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            if (oldData == null)
+                oldData = getPageData();
         }
     }
 
@@ -121,36 +167,27 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot slotId, decoding it on first use, or null
+     *         if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    synchronized Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
             return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = readTuple(slotId);
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
+    /**
+     * @return the tuple stored in slot slotId of data; its fields are only
+     *         decoded when they are asked for
+     */
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td, buffer, slotId);
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
@@ -196,9 +233,23 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot, never decoded: copy it as it was read
+            Tuple t;
+            synchronized (this) {
+                t = tuples[i];
+            }
+            if (t == null) {
+                try {
+                    dos.write(data, header.length + i * td.getSize(), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -253,8 +304,10 @@ public class HeapPage implements Page {
         if(!isSlotUsed(tupleNbr) || !rid.getPageId().equals(pid))
             throw new DbException("Couldn't delete tuple");
         
+        keepBeforeImage();
         tuples[tupleNbr] = null;
         markSlotUsed(tupleNbr, false);
+        firstFree = Math.min(firstFree, tupleNbr);
     }
 
     /**
@@ -268,16 +321,34 @@ public class HeapPage implements Page {
         if(getNumEmptySlots() == 0)
             throw new DbException("Couldn't insert Tuple, no empty slot available");
         
-        for (int i=0; i< numSlots; i++) {
+        keepBeforeImage();
+        for (int i=firstFree; i< numSlots; i++) {
             if(!isSlotUsed(i)) {
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
                 tuples[i] = t;
+                firstFree = i + 1;
                 break;
             }
         }
     }
 
+    /**
+     * @return true if the page has an empty slot; every tuple of the table
+     *         takes one
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @return true if the page has an empty slot; every tuple takes the
+     *         same space
+     */
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -298,9 +369,12 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {//CHANGES
-        int count = 0;
-        for(int i=0;i<numSlots;i++) if(!isSlotUsed(i)) count++;
-        return count;
+        if (emptySlots == -1) {
+            int count = 0;
+            for(int i=0;i<numSlots;i++) if(!isSlotUsed(i)) count++;
+            emptySlots = count;
+        }
+        return emptySlots;
     }
 
     /**
@@ -318,6 +392,8 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) { //CHANGES
+        if (emptySlots != -1 && isSlotUsed(i) != value)
+            emptySlots += value ? -1 : 1;
         if (value)
             this.header[i / 8] |= (1 << (i % 8));
         else
@@ -329,9 +405,40 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {//CHANGES
-        List<Tuple> usedTuples = new LinkedList<Tuple>(Arrays.asList(tuples));//We chose to copy and then remove empty elements because it would be more efficient when the page has more filled than empty tuples (we assume it's more likely in our dbms)
-        for(int i=usedTuples.size()-1; i >= 0; i--) if(!isSlotUsed(i)) usedTuples.remove(i);//We do this "backward" so that we can remove elements and change the list size without skipping elements
-        return usedTuples.iterator();
+        // the slots used now; tuples inserted while iterating are not
+        // returned, and tuples are only decoded when they are reached
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int slot = -1;
+            private Tuple next = advance();
+
+            private Tuple advance() {
+                while (++slot < numSlots) {
+                    if ((used[slot / 8] & (1 << (slot % 8))) == 0)
+                        continue;
+                    Tuple t = getTuple(slot);
+                    if (t != null)
+                        return t;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is an equality join whose inner relation is a table
+ * stored in a {@link BTreeFile} keyed on the join field. Instead of scanning
+ * the inner table, it looks up the key of each outer tuple in the B+ tree,
+ * so a small outer relation joins a large indexed table reading only the
+ * pages on the paths to the matching tuples.
+ * <p>
+ * The inner child is a {@link SeqScan} of the table, possibly below
+ * {@link Filter}s. It is never opened; it gives the join its tuple
+ * descriptor, and the tuples found in the index are cut down to the
+ * columns it returns before the predicates of the filters are applied.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    // the scan below the filters of child2, and the filters' predicates
+    private SeqScan scan;
+    private ArrayList<Predicate> filters;
+
+    // the current outer tuple and the inner tuples with its key
+    transient private Tuple outer;
+    transient private DbFileIterator matches;
+
+    /**
+     * Constructor. Accepts the children to join and the predicate to join
+     * them on, which {@link #canProbe} must accept.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            the scan of the indexed inner table, possibly filtered
+     * @throws IllegalArgumentException
+     *             if the inner relation cannot be looked up by the
+     *             predicate's field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("no index on the inner join field");
+        this.pred = p;
+        this.child1 = child1;
+        setInner(child2);
+    }
+
+    private void setInner(OpIterator child2) {
+        this.child2 = child2;
+        filters = new ArrayList<Predicate>();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            filters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        scan = (SeqScan) it;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if the tuples of inner that match a tuple on p can be
+     *         looked up in an index: p is an equality, and inner a scan,
+     *         possibly filtered, of a BTreeFile keyed on p's second field
+     */
+    public static boolean canProbe(JoinPredicate p, OpIterator inner) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            return false;
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof SeqScan
+            && Database.getCatalog().getDatabaseFile(((SeqScan) inner).tableid) instanceof BTreeFile
+            && ((SeqScan) inner).sortedOn() == p.getField2();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        endMatches();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        endMatches();
+        outer = null;
+    }
+
+    private void endMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate f : filters) {
+            if (!f.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple inner = matches.next();
+                if (passesFilters(inner))
+                    return merge(outer, inner);
+            }
+            endMatches();
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.tableid);
+            matches = scan.project(file.indexIterator(scan.tid, new IndexPredicate(
+                    Predicate.Op.EQUALS, outer.getField(pred.getField1()))));
+            matches.open();
+        }
+    }
+
+    /** @return the concatenation of t1 and t2 */
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        setInner(children[1]);
+    }
+
+}
@@ -17,6 +17,7 @@ public class Insert extends Operator {
     TupleDesc td;
     private boolean wasCalled = false;
     TransactionId t;
+    private final boolean bulk;
 
 
     /**
@@ -33,10 +34,27 @@ public class Insert extends Operator {
      *             insert.
      */
     public Insert(TransactionId t, OpIterator child, int tableId) throws DbException { //CHANGES
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor for an insert that may bulk-load the table.
+     *
+     * @param bulk
+     *            if true and the table is a HeapFile, the tuples are packed
+     *            into new pages that are appended to the end of the table in
+     *            large writes, bypassing the BufferPool. This needs t to have
+     *            logged its BEGIN, see {@link Transaction#start}; otherwise
+     *            the tuples are inserted one at a time as usual.
+     * @see HeapFile#appendTuples
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulk)
+            throws DbException {
         this.child = child;
         this.tableId = tableId;
         this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
         this.t = t; // Is needed for the fetchnext method
+        this.bulk = bulk;
     }
 
     public TupleDesc getTupleDesc() { //CHANGES
@@ -76,6 +94,14 @@ public class Insert extends Operator {
         wasCalled = true;
 
         int count = 0;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (bulk && file instanceof HeapFile && Database.getLogFile().isActive(t)) {
+            try {
+                count = ((HeapFile) file).appendTuples(t, child);
+            } catch (IOException e) {
+                throw new DbException("bulk load failed: " + e);
+            }
+        }
         while (child.hasNext()) {
             try {
                 Database.getBufferPool().insertTuple(t, tableId, child.next());
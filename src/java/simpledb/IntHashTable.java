@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntHashTable numbers the distinct int keys it is given: the first key
+ * added is row 0, the next new one row 1, and so on. Operators that hash on
+ * an INT field keep what they know of each key in arrays indexed by its
+ * row, instead of in a HashMap, whose every probe boxes the key and follows
+ * pointers from entry to entry.
+ * <p>
+ * The rows are found through an open-addressing table of row numbers,
+ * probed linearly, that grows to stay at most half full.
+ */
+final class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // 1 + the row of the key stored at each slot, 0 for an empty slot
+    private int[] slots;
+    // the key of each row
+    private int[] keys;
+    private int size;
+
+    IntHashTable() {
+        this(16);
+    }
+
+    /** Creates a table that takes expected keys before it grows. */
+    IntHashTable(int expected) {
+        int capacity = 4;
+        while (capacity < 2L * expected)
+            capacity <<= 1;
+        slots = new int[capacity];
+        keys = new int[capacity / 2];
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return the row of key, -1 if it was never added */
+    int get(int key) {
+        int mask = slots.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0)
+                return -1;
+            if (keys[s - 1] == key)
+                return s - 1;
+        }
+    }
+
+    /**
+     * @return the row of key, which is {@link #size} before the call if key
+     *         is new
+     */
+    int add(int key) {
+        int mask = slots.length - 1;
+        int i = slot(key, mask);
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            if (keys[slots[i] - 1] == key)
+                return slots[i] - 1;
+        }
+        if (2 * (size + 1) > slots.length) {
+            grow();
+            return add(key);
+        }
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, 2 * size);
+        keys[size] = key;
+        slots[i] = ++size;
+        return size - 1;
+    }
+
+    private void grow() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int row = 0; row < size; row++) {
+            int i = slot(keys[row], mask);
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = row + 1;
+        }
+    }
+
+    /** @return the key of row */
+    int key(int row) {
+        return keys[row];
+    }
+
+    /** @return the number of keys, and of rows */
+    int size() {
+        return size;
+    }
+
+    /** Removes every key, keeping the room they took. */
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+}
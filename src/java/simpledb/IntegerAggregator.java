@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,9 +18,19 @@ public class IntegerAggregator implements Aggregator {
     private final Type gbFieldType;
     private final int aField;
     private final Op operator;
-    private final Map<Field, Integer> extremas, counts, sums, averages;
-    private final Map<Op, Map<Field, Integer>> maps;
     private String gFieldName, aFieldName;
+    // the row of each group: of an INT group-by value in intGroups, of any
+    // other in groups, whose values are in groupFields by row; without
+    // grouping every tuple is in row 0
+    private final IntHashTable intGroups;
+    private final Map<Field, Integer> groups;
+    private final List<Field> groupFields;
+    private int rows;
+    // the state of the aggregate of each row: the number of tuples for
+    // COUNT and AVG, and the sum for SUM and AVG, or the extremum for MIN
+    // and MAX
+    private int[] counts = new int[16];
+    private int[] values = new int[16];
 
     /**
      * Aggregate constructor
@@ -41,17 +52,40 @@ public class IntegerAggregator implements Aggregator {
         this.gbFieldType=gbfieldtype;
         this.aField=afield;
         this.operator=what;
-        extremas = new HashMap<>(); // If the operator is min or max, it contains the min (resp max) value
-        counts = new HashMap<>();
-        sums = new HashMap<>();
-        averages = new HashMap<>();
+        boolean intGrouping = gbfield != Aggregator.NO_GROUPING && gbfieldtype == Type.INT_TYPE;
+        intGroups = intGrouping ? new IntHashTable() : null;
+        groups = intGrouping ? null : new HashMap<Field, Integer>();
+        groupFields = intGrouping ? null : new ArrayList<Field>();
+    }
 
-        maps = new HashMap<>();
-        maps.put(Op.MAX, extremas);
-        maps.put(Op.MIN, extremas);
-        maps.put(Op.COUNT, counts);
-        maps.put(Op.SUM, sums);
-        maps.put(Op.AVG, averages);
+    /** @return the row of the group of tup, starting a new one if needed */
+    private int rowOf(Tuple tup) {
+        int row;
+        if (gbField == Aggregator.NO_GROUPING) {
+            row = 0;
+        } else if (intGroups != null) {
+            row = intGroups.add(tup.getInt(gbField));
+        } else {
+            Field groupField = tup.getField(gbField);
+            Integer r = groups.get(groupField);
+            if (r == null) {
+                r = groupFields.size();
+                groups.put(groupField, r);
+                groupFields.add(groupField);
+            }
+            row = r;
+        }
+        if (row == rows) {
+            if (rows == counts.length) {
+                counts = Arrays.copyOf(counts, 2 * rows);
+                values = Arrays.copyOf(values, 2 * rows);
+            }
+            counts[row] = 0;
+            values[row] = operator == Op.MIN ? Integer.MAX_VALUE
+                : operator == Op.MAX ? Integer.MIN_VALUE : 0;
+            rows++;
+        }
+        return row;
     }
 
     /**
@@ -62,43 +96,25 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {//CHANGES
-        Field groupField;
-        Field aggField;
+        if (operator != Op.COUNT && operator != Op.SUM && operator != Op.AVG
+                && operator != Op.MIN && operator != Op.MAX)
+            throw new UnsupportedOperationException("Operation not supported");
 
-        if(gbField != Aggregator.NO_GROUPING) {
-            groupField = tup.getField(gbField);
+        if(gbField != Aggregator.NO_GROUPING)
             gFieldName = tup.getTupleDesc().getFieldName(gbField);
-        }
-        else
-            groupField = new IntField(Aggregator.NO_GROUPING);
-
-        aggField = tup.getField(aField);
         aFieldName = tup.getTupleDesc().getFieldName(aField);
 
-        if(operator == Op.COUNT || operator == Op.AVG) {
-            if (!counts.containsKey(groupField))
-                counts.put(groupField, 1);
-            else
-                counts.put(groupField, counts.get(groupField) + 1);
-        }
-        if(operator == Op.AVG || operator == Op.SUM) {
-            if (!sums.containsKey(groupField))
-                sums.put(groupField, aggField.hashCode());
-            else
-                sums.put(groupField, sums.get(groupField) + aggField.hashCode());
-        }
-        if(operator == Op.AVG)
-            averages.put(groupField, sums.get(groupField) / counts.get(groupField));
-
-        if(operator == Op.MAX || operator == Op.MIN){
-            if(!extremas.containsKey(groupField))
-                extremas.put(groupField, aggField.hashCode());
-            else
-                extremas.put(groupField, operator == Op.MAX ? Math.max(aggField.hashCode(), extremas.get(groupField)) : Math.min(aggField.hashCode(), extremas.get(groupField)));
-        }
-        else if (operator != Op.COUNT && operator != Op.SUM && operator != Op.AVG) {
-            throw new UnsupportedOperationException("Operation not supported");
-        }
+        int row = rowOf(tup);
+        // read in place, without decoding the field
+        int aggValue = tup.getInt(aField);
+        if(operator == Op.COUNT || operator == Op.AVG)
+            counts[row]++;
+        if(operator == Op.SUM || operator == Op.AVG)
+            values[row] += aggValue;
+        else if(operator == Op.MAX)
+            values[row] = Math.max(values[row], aggValue);
+        else if(operator == Op.MIN)
+            values[row] = Math.min(values[row], aggValue);
     }
 
     /**
@@ -111,7 +127,7 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {//CHANGES
         TupleDesc desc = getTupleDesc();
-        List<Tuple> tuples = convertToTuples(maps.get(operator), desc);
+        List<Tuple> tuples = convertToTuples(desc);
 
         return new TupleIterator(desc, tuples);
     }
@@ -127,16 +143,18 @@ public class IntegerAggregator implements Aggregator {
     }
 
     //CHANGES
-    private List<Tuple> convertToTuples(Map<Field, Integer> values, TupleDesc desc) {
+    private List<Tuple> convertToTuples(TupleDesc desc) {
         List<Tuple> tuples = new ArrayList<>();
-        for(Map.Entry<Field, Integer> entry: values.entrySet()){
+        for(int row = 0; row < rows; row++){
+            int value = operator == Op.COUNT ? counts[row]
+                : operator == Op.AVG ? values[row] / counts[row] : values[row];
             Tuple tuple = new Tuple(desc);
             if(gbField == Aggregator.NO_GROUPING){
-                tuple.setField(0, new IntField(entry.getValue()));
+                tuple.setField(0, new IntField(value));
             }
             else {
-                tuple.setField(0, entry.getKey());
-                tuple.setField(1, new IntField(entry.getValue()));
+                tuple.setField(0, intGroups != null ? new IntField(intGroups.key(row)) : groupFields.get(row));
+                tuple.setField(1, new IntField(value));
             }
             tuples.add(tuple);
         }
@@ -3,18 +3,29 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a block
+ * nested-loop join: it reads the outer relation a block of tuples at a time
+ * and pairs each block with one pass over the inner relation, which is thus
+ * scanned once per block rather than once per outer tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Pages' worth of outer tuples a Join holds at a time by default. */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
     //CHANGES
     JoinPredicate p;
     OpIterator child1;
     OpIterator child2;
     TupleDesc td;
-    Tuple tuple1;
+    final int blockPages;
+    // the current block of outer tuples, the inner tuple paired with it and
+    // the next outer tuple of the block to pair with tuple2
+    final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    Tuple tuple2;
+    int next;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -28,12 +39,39 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {//CHANGES
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the size of the blocks the outer relation is read in.
+     *
+     * @param blockPages
+     *            the number of pages' worth of outer tuples to hold at a time
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("a block holds at least one page");
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
         td = null;
     }
 
+    /** @return the number of pages' worth of outer tuples held at a time */
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    /**
+     * @return the number of tuples of tupleSize bytes that blockPages pages
+     *         hold, at least one
+     */
+    static int blockTuples(int blockPages, int tupleSize) {
+        return (int) Math.max(1, (long) blockPages * BufferPool.getPageSize() / tupleSize);
+    }
+
     public JoinPredicate getJoinPredicate() {//CHANGES
         return p;
     }
@@ -70,17 +108,37 @@ public class Join extends Operator {
     	super.open();
         child1.open();
         child2.open();
+        loadBlock();
     }
 
     public void close() {//CHANGES
         super.close();
         child1.close();
         child2.close();
+        block.clear();
+        tuple2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {//CHANGES
         child1.rewind();
         child2.rewind();
+        loadBlock();
+    }
+
+    /**
+     * Reads the next block of outer tuples, to be paired with a new pass
+     * over the inner relation.
+     *
+     * @return false if the outer relation has no tuples left
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = blockTuples(blockPages, child1.getTupleDesc().getSize());
+        while (block.size() < size && child1.hasNext())
+            block.add(child1.next());
+        tuple2 = null;
+        next = 0;
+        return !block.isEmpty();
     }
 
     /**
@@ -97,46 +155,51 @@ public class Join extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * <p>
+     * Each inner tuple is paired with every outer tuple of the current block
+     * in turn; once the inner relation is exhausted, the next block is read
+     * and the inner relation rewound.
      * 
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {//CHANGES
-    	if(tuple1 == null){
-    		if(!child1.hasNext()) 
-    			return null;
-    		tuple1 = child1.next();
-	    }
-    	
-	    while(tuple1 != null) {
-		    while (child2.hasNext()) {
-			    Tuple tuple2 = child2.next();
-			    
-			    if (getJoinPredicate().filter(tuple1, tuple2)) {
-				    Tuple tuple = new Tuple(getTupleDesc());
-				    
-				    int i = 0;
-				    Iterator<Field> fields = tuple1.fields();
-				    
-				    while (fields.hasNext()) {
-					    tuple.setField(i++, fields.next());
-				    }
-				    
-				    Iterator<Field> fields1 = tuple2.fields();
-				    
-				    while (fields1.hasNext()) {
-					    tuple.setField(i++, fields1.next());
+	    while (!block.isEmpty()) {
+		    if (tuple2 != null) {
+			    while (next < block.size()) {
+				    Tuple tuple1 = block.get(next++);
+
+				    if (getJoinPredicate().filter(tuple1, tuple2)) {
+					    Tuple tuple = new Tuple(getTupleDesc());
+
+					    int i = 0;
+					    Iterator<Field> fields = tuple1.fields();
+
+					    while (fields.hasNext()) {
+						    tuple.setField(i++, fields.next());
+					    }
+
+					    Iterator<Field> fields1 = tuple2.fields();
+
+					    while (fields1.hasNext()) {
+						    tuple.setField(i++, fields1.next());
+					    }
+
+					    return tuple;
 				    }
-				    
-				    return tuple;
 			    }
 		    }
-		    
+
+		    if (child2.hasNext()) {
+			    tuple2 = child2.next();
+			    next = 0;
+			    continue;
+		    }
+
+		    // the block has met every inner tuple
+		    if (!loadBlock())
+			    break;
 		    child2.rewind();
-		    if(!child1.hasNext())
-		    	break;
-		    
-		    tuple1 = child1.next();
 	    }
 	    return null;
     }
@@ -68,7 +68,18 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // children that arrive sorted on the join fields are merged, which
+        // takes no memory for a hash table or block of outer tuples; else
+        // an inner table indexed on its join field is looked up, which is
+        // what estimateJoinCost assumes for it
+        if (!(lj instanceof LogicalSubplanJoinNode) && SortMergeJoin.supports(lj.p)
+                && SortMergeJoin.sortedOn(plan1) == t1id
+                && SortMergeJoin.sortedOn(plan2) == t2id)
+            j = new SortMergeJoin(p,plan1,plan2);
+        else if (!(lj instanceof LogicalSubplanJoinNode) && IndexNestedLoopJoin.canProbe(p, plan2))
+            j = new IndexNestedLoopJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -102,16 +113,87 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                outerTupleSize(new Vector<LogicalJoinNode>(), j.t1Alias), true);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does.
+     *
+     * @param outerTupleSize
+     *            the size in bytes of the tuples of the left-hand side, see
+     *            {@link #outerTupleSize}
+     * @param innerIsTable
+     *            true if the right-hand side is the table j.t2Alias itself,
+     *            false if it is a join of it with other tables, which
+     *            cannot be looked up in an index
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, int outerTupleSize, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        } else if (innerIsTable && j.p == Predicate.Op.EQUALS && isIndexed(j.t2Alias, j.f2PureName)) {
+            // an index nested-loop join, see IndexNestedLoopJoin: the outer
+            // side is read once, and every outer tuple looks its key up by
+            // reading a path from the root of the B+ tree to a leaf
+            BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+            int pages = Math.max(1, file.numPages());
+            int keySize = file.getTupleDesc().getFieldType(file.keyField()).getLen();
+            double fanout = Math.max(2, BufferPool.getPageSize() / (keySize + 4));
+            double depth = Math.max(1, Math.ceil(Math.log(pages) / Math.log(fanout))) + 1;
+            return cost1 + card1 * depth * (cost2 / pages) + card1;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // a block nested-loop join, see Join: the outer side is read
+            // once, the inner side once per block of outer tuples, and the
+            // predicate is applied to every pair
+            double blocks = Math.ceil((double) card1
+                    / Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, outerTupleSize));
+            return cost1 + Math.max(1, blocks) * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the size in bytes of the tuples of the side of a join that
+     *         holds the table with the given alias: the result of the joins
+     *         in plan if they include the table, which holds the fields of
+     *         every table they join, or else the table itself
+     */
+    int outerTupleSize(Vector<LogicalJoinNode> plan, String alias) {
+        if (!doesJoin(plan, alias))
+            return Database.getCatalog().getTupleDesc(p.getTableId(alias)).getSize();
+        HashSet<String> aliases = new HashSet<String>();
+        for (LogicalJoinNode j : plan) {
+            aliases.add(j.t1Alias);
+            if (j.t2Alias != null)
+                aliases.add(j.t2Alias);
+        }
+        int size = 0;
+        for (String a : aliases) {
+            Integer id = p.getTableId(a);
+            if (id != null)
+                size += Database.getCatalog().getTupleDesc(id).getSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the table with the given alias is a BTreeFile keyed on
+     *         the field with the given name
+     */
+    private boolean isIndexed(String alias, String fieldPureName) {
+        Integer id = p.getTableId(alias);
+        if (id == null)
+            return false;
+        DbFile file = Database.getCatalog().getDatabaseFile(id);
+        if (!(file instanceof BTreeFile))
+            return false;
+        try {
+            return file.getTupleDesc().fieldNameToIndex(fieldPureName) == ((BTreeFile) file).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
         }
     }
 
@@ -349,11 +431,14 @@ public class JoinOptimizer {
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // case where prevbest is left; the side in prevBest is a join, and
+        // cannot be looked up in an index
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                outerTupleSize(prevBest, j.t1Alias), !doesJoin(prevBest, j.t2Alias));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                outerTupleSize(prevBest, j.t2Alias), !doesJoin(prevBest, j.t1Alias));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -42,6 +42,9 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {//CHANGES
+        // read int fields in place instead of decoding them
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return op.matches(Integer.compare(t1.getInt(field1), t2.getInt(field2)));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
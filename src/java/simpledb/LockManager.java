@@ -0,0 +1,358 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager grants page-granularity shared and exclusive locks to
+ * transactions on behalf of the BufferPool. A READ_ONLY request asks for a
+ * shared lock and a READ_WRITE request for an exclusive one; a transaction
+ * holding the only shared lock on a page may upgrade it to an exclusive lock.
+ * <p>
+ * Requests that cannot be granted wait in a FIFO queue per page, each on its
+ * own condition, and are granted strictly in queue order so that writers are
+ * not starved by a stream of readers. Upgrades go to the front of the queue:
+ * the upgrading transaction already holds the page, so nothing queued behind
+ * it could be granted first anyway.
+ * <p>
+ * Locks are held until the transaction completes (strict two-phase locking),
+ * unless they are given up early through {@link #release}.
+ * <p>
+ * Waiting requests form a waits-for graph: a request waits for the
+ * transactions holding the page in a conflicting mode and for every request
+ * queued ahead of it. Each time a request has to wait, the graph is searched
+ * for a cycle through the new edges, which is the only place a new deadlock
+ * can appear. The youngest transaction of a cycle (the one with the largest
+ * TransactionId) is chosen as the victim and its waiting request fails with a
+ * TransactionAbortedException right away, so only transactions that really
+ * are deadlocked get aborted.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** A request waiting in the queue of a page. */
+    private static class Request {
+        final TransactionId tid;
+        final PageLock lock;
+        final boolean exclusive;
+        final Condition granted;
+        boolean isGranted;
+        // set when the transaction was chosen to break a deadlock
+        boolean aborted;
+
+        Request(TransactionId tid, PageLock lock, boolean exclusive, Condition granted) {
+            this.tid = tid;
+            this.lock = lock;
+            this.exclusive = exclusive;
+            this.granted = granted;
+        }
+    }
+
+    /** The lock of a single page. */
+    private static class PageLock {
+        final PageId pid;
+        // transactions holding the page in shared mode
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+        // the transaction holding the page in exclusive mode, if any
+        TransactionId owner;
+        final ArrayDeque<Request> waiters = new ArrayDeque<Request>();
+
+        PageLock(PageId pid) {
+            this.pid = pid;
+        }
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    // guards every field below
+    private final ReentrantLock latch = new ReentrantLock();
+    private final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    // pages on which each transaction holds a lock
+    private final HashMap<TransactionId, HashSet<PageId>> held = new HashMap<TransactionId, HashSet<PageId>>();
+    // queued requests of each transaction
+    private final HashMap<TransactionId, ArrayList<Request>> queued = new HashMap<TransactionId, ArrayList<Request>>();
+
+    /**
+     * Acquires a lock on pid for tid, blocking until it is granted. Returns
+     * immediately if tid already holds a lock at least as strong.
+     *
+     * @param perm READ_WRITE for an exclusive lock, READ_ONLY (or null) for a
+     *             shared one
+     * @throws TransactionAbortedException if waiting would deadlock and tid
+     *         is chosen as the victim, or if the thread is interrupted while
+     *         waiting for the lock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        latch.lock();
+        try {
+            PageLock lock = locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock(pid);
+                locks.put(pid, lock);
+            }
+            if (tid.equals(lock.owner) || (!exclusive && lock.sharers.contains(tid)))
+                return;
+
+            boolean upgrade = lock.sharers.contains(tid);
+            if (compatible(lock, tid, exclusive) && (upgrade || lock.waiters.isEmpty())) {
+                grant(lock, tid, exclusive);
+                return;
+            }
+
+            Request request = new Request(tid, lock, exclusive, latch.newCondition());
+            enqueue(request, upgrade);
+            resolveDeadlocks(request);
+            try {
+                while (!request.isGranted) {
+                    if (request.aborted)
+                        throw new TransactionAbortedException();
+                    request.granted.await();
+                }
+            } catch (InterruptedException e) {
+                if (!request.isGranted) {
+                    if (!request.aborted)
+                        withdraw(request);
+                    throw new TransactionAbortedException();
+                }
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases the lock tid holds on pid, if any, and grants it to the
+     * requests queued behind it.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            if (pages != null && pages.remove(pid)) {
+                if (pages.isEmpty())
+                    held.remove(tid);
+                unlock(tid, pid);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases every lock held by tid and withdraws any request of tid that
+     * is still queued.
+     */
+    public void releaseAll(TransactionId tid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.remove(tid);
+            if (pages != null) {
+                for (PageId pid : pages)
+                    unlock(tid, pid);
+            }
+            // requests left behind by threads that died while waiting
+            ArrayList<Request> requests = queued.get(tid);
+            if (requests != null) {
+                for (Request request : new ArrayList<Request>(requests))
+                    withdraw(request);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            return pages != null && pages.contains(pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            PageLock lock = locks.get(pid);
+            return lock != null && tid.equals(lock.owner);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return the pages on which tid currently holds a lock */
+    public ArrayList<PageId> pagesLockedBy(TransactionId tid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            return pages == null ? new ArrayList<PageId>() : new ArrayList<PageId>(pages);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if tid may hold pid in the requested mode given the
+     *         locks other transactions hold on it
+     */
+    private static boolean compatible(PageLock lock, TransactionId tid, boolean exclusive) {
+        if (lock.owner != null)
+            return lock.owner.equals(tid);
+        if (!exclusive)
+            return true;
+        return lock.sharers.isEmpty()
+                || (lock.sharers.size() == 1 && lock.sharers.contains(tid));
+    }
+
+    private void grant(PageLock lock, TransactionId tid, boolean exclusive) {
+        if (exclusive) {
+            lock.sharers.remove(tid);
+            lock.owner = tid;
+        } else {
+            lock.sharers.add(tid);
+        }
+        HashSet<PageId> pages = held.get(tid);
+        if (pages == null) {
+            pages = new HashSet<PageId>();
+            held.put(tid, pages);
+        }
+        pages.add(lock.pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        lock.sharers.remove(tid);
+        if (tid.equals(lock.owner))
+            lock.owner = null;
+        grantWaiters(lock);
+        if (lock.isFree())
+            locks.remove(pid);
+    }
+
+    /** Grants queued requests in FIFO order until one has to keep waiting. */
+    private void grantWaiters(PageLock lock) {
+        Request head;
+        while ((head = lock.waiters.peekFirst()) != null
+                && compatible(lock, head.tid, head.exclusive)) {
+            lock.waiters.pollFirst();
+            dequeued(head);
+            grant(lock, head.tid, head.exclusive);
+            head.isGranted = true;
+            head.granted.signal();
+        }
+    }
+
+    /**
+     * Breaks every deadlock request just closed by aborting the youngest
+     * transaction of each cycle. Throws if that is the requester itself;
+     * other victims are woken up to fail in their own threads.
+     */
+    private void resolveDeadlocks(Request request) throws TransactionAbortedException {
+        ArrayList<TransactionId> cycle;
+        while ((cycle = findCycle(request.tid)) != null) {
+            TransactionId victim = cycle.get(0);
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId())
+                    victim = t;
+            }
+            ArrayList<Request> requests = new ArrayList<Request>(queued.get(victim));
+            for (Request r : requests) {
+                r.aborted = true;
+                withdraw(r);
+                r.granted.signal();
+            }
+            if (victim.equals(request.tid))
+                throw new TransactionAbortedException();
+        }
+    }
+
+    /** @return the transactions of a waits-for cycle through tid, or null */
+    private ArrayList<TransactionId> findCycle(TransactionId tid) {
+        ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+        if (reaches(tid, tid, new HashSet<TransactionId>(), cycle))
+            return cycle;
+        return null;
+    }
+
+    /**
+     * Depth-first search of the waits-for graph for a path from t to target.
+     * On success the transactions of the path are appended to path.
+     */
+    private boolean reaches(TransactionId t, TransactionId target,
+            HashSet<TransactionId> visited, ArrayList<TransactionId> path) {
+        for (TransactionId next : waitsFor(t)) {
+            if (next.equals(target) || (visited.add(next) && reaches(next, target, visited, path))) {
+                path.add(t);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the transactions the queued requests of t are waiting for */
+    private HashSet<TransactionId> waitsFor(TransactionId t) {
+        HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+        ArrayList<Request> requests = queued.get(t);
+        if (requests == null)
+            return blockers;
+        for (Request r : requests) {
+            PageLock lock = r.lock;
+            if (lock.owner != null)
+                blockers.add(lock.owner);
+            if (r.exclusive)
+                blockers.addAll(lock.sharers);
+            for (Request ahead : lock.waiters) {
+                if (ahead == r)
+                    break;
+                blockers.add(ahead.tid);
+            }
+        }
+        blockers.remove(t);
+        return blockers;
+    }
+
+    private void enqueue(Request request, boolean front) {
+        if (front)
+            request.lock.waiters.addFirst(request);
+        else
+            request.lock.waiters.addLast(request);
+        ArrayList<Request> requests = queued.get(request.tid);
+        if (requests == null) {
+            requests = new ArrayList<Request>(1);
+            queued.put(request.tid, requests);
+        }
+        requests.add(request);
+    }
+
+    private void dequeued(Request request) {
+        ArrayList<Request> requests = queued.get(request.tid);
+        requests.remove(request);
+        if (requests.isEmpty())
+            queued.remove(request.tid);
+    }
+
+    /** Takes a request that will not be granted out of its queue. */
+    private void withdraw(Request request) {
+        PageLock lock = request.lock;
+        lock.waiters.remove(request);
+        dequeued(request);
+        grantWaiters(lock);
+        if (lock.isFree())
+            locks.remove(lock.pid);
+    }
+}
@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,12 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> APPEND records describe a run of pages a transaction appended to a
+HeapFile without going through the BufferPool, see
+BufferPool.appendPages. They consist of three integers: the table id, the
+number of the first page and the number of pages. Undoing the record
+empties the pages again.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +88,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int APPEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -218,6 +225,29 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an APPEND record to disk for the specified tid and run of
+        pages.
+        @param tid The transaction that appended the pages
+        @param tableId The table the pages were appended to
+        @param firstPage The number of the first appended page
+        @param numPages The number of pages appended from firstPage on
+
+        @see BufferPool#appendPages
+    */
+    public synchronized void logAppend(TransactionId tid, int tableId,
+                                       int firstPage, int numPages)
+        throws IOException {
+        Debug.log("APPEND, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(APPEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -265,7 +295,8 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the constructor taking the id and the page data
+            Constructor<?> pageConst = pageClass.getConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,12 +306,15 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         } catch (InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
@@ -295,6 +329,11 @@ public class LogFile {
 
     }
 
+    /** @return true if tid has begun and has neither committed nor aborted */
+    synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -416,6 +455,11 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case APPEND_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -466,7 +510,54 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not running");
+
+                // the first update record of a page holds its state before
+                // the transaction touched it
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                // runs of pages the transaction appended, as table id,
+                // first page and number of pages
+                ArrayList<int[]> appended = new ArrayList<int[]>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                        break;
+                    case APPEND_RECORD:
+                        int[] run = { raf.readInt(), raf.readInt(), raf.readInt() };
+                        if (recordTid == tid.getId())
+                            appended.add(run);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(pid);
+                }
+                // after the before-images: a page the transaction appended
+                // and then updated through the BufferPool has both
+                for (int[] run : appended) {
+                    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(run[0]);
+                    file.emptyPages(run[1], run[2]);
+                    for (int i = 0; i < run[2]; i++)
+                        Database.getBufferPool().discardPage(new HeapPageId(run[0], run[1] + i));
+                }
             }
         }
     }
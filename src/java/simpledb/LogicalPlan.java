@@ -258,6 +258,60 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Works out which columns of a scanned table the query refers to, in its
+     * filters, joins, select list, aggregate, GROUP BY and ORDER BY.
+     *
+     * @return the indices of those columns in table order, or null if the
+     *         query refers to all of them or selects *
+     */
+    int[] scanColumns(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        boolean[] used = new boolean[td.numFields()];
+        for (String name : names) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts[parts.length - 1].equals("*"))
+                return null;
+            if (parts.length != 2 || !parts[0].equals(table.alias))
+                continue;
+            try {
+                used[td.fieldNameToIndex(parts[1])] = true;
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+            }
+        }
+
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < used.length; i++) {
+            if (used[i])
+                columns.add(i);
+        }
+        if (columns.size() == used.length)
+            return null;
+        // the rows still have to be counted, e.g. for COUNT
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -294,7 +348,10 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 // a columnar table is cheaper to scan the fewer columns are read
+                 int[] columns = file instanceof ColumnFile ? scanColumns(table) : null;
+                 ss = new SeqScan(t, file.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -338,7 +395,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // statistics are kept by the columns of the table, not the scan
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil et al.). Evicts the page whose K-th most recent
+ * reference lies furthest in the past; pages referenced fewer than K times
+ * are evicted first, least recently used among them. A page touched once by
+ * a large scan therefore never displaces a page that is requested
+ * repeatedly.
+ * <p>
+ * Reference histories of evicted pages are retained for as many pages as
+ * the pool has frames, so a hot page that was evicted regains its rank as
+ * soon as it is read back in.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    // keys of pages with fewer than K references are shifted below every
+    // K-th reference time so that they sort (and get evicted) first
+    private static final long SHORT_HISTORY = Long.MIN_VALUE / 2;
+
+    private final int k;
+    private long clock;
+    private PageId[] pages;
+    // history[frame][i] is the time of the (i+1)-th most recent reference,
+    // 0 if there was none
+    private long[][] history;
+    private long[] keys;
+    private boolean[] aside;
+    private TreeMap<Long, Integer> order;
+    private Map<PageId, long[]> retained;
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references to track per page; must be positive.
+     *          LRU-1 is plain LRU.
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive, got " + k);
+        this.k = k;
+    }
+
+    public void init(final int numFrames) {
+        clock = 0;
+        pages = new PageId[numFrames];
+        history = new long[numFrames][];
+        keys = new long[numFrames];
+        aside = new boolean[numFrames];
+        order = new TreeMap<Long, Integer>();
+        retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numFrames;
+            }
+        };
+    }
+
+    public void loaded(int frame, PageId pid) {
+        long[] h = retained.remove(pid);
+        pages[frame] = pid;
+        history[frame] = h != null ? h : new long[k];
+        reference(frame);
+    }
+
+    public void accessed(int frame) {
+        order.remove(keys[frame]);
+        reference(frame);
+    }
+
+    public void removed(int frame) {
+        if (pages[frame] == null)
+            return;
+        order.remove(keys[frame]);
+        retained.put(pages[frame], history[frame]);
+        pages[frame] = null;
+        history[frame] = null;
+        aside[frame] = false;
+    }
+
+    public void setAside(int frame) {
+        aside[frame] = true;
+    }
+
+    public void restored(int frame) {
+        aside[frame] = false;
+    }
+
+    public int victim() {
+        for (int frame : order.values())
+            if (!aside[frame])
+                return frame;
+        return NO_FRAME;
+    }
+
+    private void reference(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+        // reference times are unique, so keys never collide
+        keys[frame] = h[k - 1] != 0 ? h[k - 1] : SHORT_HISTORY + h[0];
+        order.put(keys[frame], frame);
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * Least recently used replacement: evicts the frame whose page was requested
+ * the longest time ago. This is the BufferPool default.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    // oldest frame first
+    private FrameList recency;
+    private boolean[] aside;
+
+    public void init(int numFrames) {
+        recency = new FrameList(numFrames);
+        aside = new boolean[numFrames];
+    }
+
+    public void loaded(int frame, PageId pid) {
+        recency.addTail(frame);
+    }
+
+    public void accessed(int frame) {
+        recency.moveToTail(frame);
+    }
+
+    public void removed(int frame) {
+        recency.remove(frame);
+        aside[frame] = false;
+    }
+
+    public void setAside(int frame) {
+        aside[frame] = true;
+    }
+
+    public void restored(int frame) {
+        aside[frame] = false;
+    }
+
+    public int victim() {
+        return recency.head(aside);
+    }
+}
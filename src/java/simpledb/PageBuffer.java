@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageBuffer reads the fields of the tuples of a HeapPage straight out of the
+ * bytes of the page, without creating Tuple or Field objects. The offset of a
+ * field is computed from the TupleDesc of the table: slot i starts right
+ * after the header, i tuple sizes in, and fields are laid out in order as
+ * written by {@link Field#serialize}.
+ * <p>
+ * The bytes must not change while the PageBuffer is in use. Slots are not
+ * checked against the header; the caller reads only used slots.
+ */
+final class PageBuffer {
+
+    private final ByteBuffer buf;
+    private final TupleDesc td;
+    // offset of slot 0
+    private final int base;
+    private final int tupleSize;
+
+    /**
+     * @param buf the bytes of the page, starting at position 0
+     * @param td the schema of the tuples on the page
+     * @param headerSize the size in bytes of the header of the page
+     */
+    PageBuffer(ByteBuffer buf, TupleDesc td, int headerSize) {
+        this.buf = buf;
+        this.td = td;
+        this.base = headerSize;
+        this.tupleSize = td.getSize();
+    }
+
+    /** @return the offset in the page of field of the tuple in slot */
+    private int offset(int slot, int field) {
+        return base + slot * tupleSize + td.getOffset(field);
+    }
+
+    /** @return the value of an INT_TYPE field */
+    int getInt(int slot, int field) {
+        return buf.getInt(offset(slot, field));
+    }
+
+    /**
+     * Compares a STRING_TYPE field to the string encoded by bytes, one
+     * unsigned byte at a time. For strings of ASCII characters this orders
+     * them as {@link StringField#compare} does.
+     *
+     * @return a negative number, zero or a positive number as the field is
+     *         less than, equal to or greater than bytes
+     */
+    int compareString(int slot, int field, byte[] bytes) {
+        int off = offset(slot, field);
+        int len = buf.getInt(off);
+        off += 4;
+        int n = Math.min(len, bytes.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buf.get(off + i) & 0xff) - (bytes[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return len - bytes.length;
+    }
+
+    /** @return field of the tuple in slot, decoded into a Field */
+    Field getField(int slot, int field) {
+        return td.getFieldType(field).parse(buf, offset(slot, field));
+    }
+}
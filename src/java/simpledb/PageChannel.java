@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * PageChannel is the disk access path of a DbFile: a single FileChannel,
+ * opened on first use and kept open, read and written at explicit
+ * positions so that any number of threads can use it at once.
+ * <p>
+ * Reads of a full page go into a buffer owned by the calling thread and
+ * reused by its next read, so the hot read path allocates nothing. Page
+ * constructors parse or copy the bytes they are given and keep no reference
+ * to the buffer, which makes this safe.
+ * <p>
+ * Reads may instead be served from a read-only mapping of the file, see
+ * {@link #slice}. The file is mapped in chunks of {@link #CHUNK} bytes, and a
+ * chunk is mapped again when the file has grown past its end. Writes still go
+ * through the channel; the mapping shares the operating system's page cache
+ * with it, so it sees them.
+ */
+final class PageChannel {
+
+    /** Page-sized read buffers, one per thread. */
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+
+    /** Bytes of the file covered by one mapping. */
+    static final int CHUNK = 1 << 26;
+
+    private final File f;
+    private volatile FileChannel channel;
+    // mappings of the file, CHUNK bytes each except possibly the last
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * @return a buffer of length bytes for a read. Buffers of one page are
+     *         owned by the calling thread and handed out again by its next
+     *         call, so the contents must be consumed before that.
+     */
+    static byte[] buffer(int length) {
+        if (length != BufferPool.getPageSize())
+            return new byte[length];
+        byte[] buf = BUFFERS.get();
+        // the page size only changes in tests
+        if (buf == null || buf.length != length) {
+            buf = new byte[length];
+            BUFFERS.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Fills buf with the bytes of the file starting at position. The part of
+     * buf past the end of the file is zeroed.
+     *
+     * @return the number of bytes read from the file, -1 if position is at
+     *         or past its end
+     */
+    int read(long position, byte[] buf) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buf);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel c = channel();
+                while (dst.hasRemaining()) {
+                    if (c.read(dst, position + dst.position()) < 0)
+                        break;
+                }
+                break;
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+        int read = dst.position();
+        Arrays.fill(buf, read, buf.length, (byte) 0);
+        return read == 0 && buf.length > 0 ? -1 : read;
+    }
+
+    /** Writes data to the file at position, growing the file if needed. */
+    void write(long position, byte[] data) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel c = channel();
+                while (src.hasRemaining())
+                    c.write(src, position + src.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+    }
+
+    /** Forces the data written so far to the storage device. */
+    void force() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                channel().force(false);
+                return;
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+    }
+
+    /** @return the current size of the file in bytes */
+    long size() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return channel().size();
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Cuts the file down to size bytes. Mappings of the file must not be
+     * read past its new end, which would crash the reader.
+     */
+    void truncate(long size) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                channel().truncate(size);
+                return;
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * @return a read-only view of the length bytes of the mapped file at
+     *         position, or null if they are not all in the file or straddle
+     *         two chunks, in which case the caller should use {@link #read}
+     */
+    ByteBuffer slice(long position, int length) throws IOException {
+        int index = (int) (position / CHUNK);
+        int offset = (int) (position % CHUNK);
+        if (offset + length > CHUNK)
+            return null;
+        MappedByteBuffer[] mapped = chunks;
+        MappedByteBuffer chunk = index < mapped.length ? mapped[index] : null;
+        if (chunk == null || chunk.capacity() < offset + length) {
+            chunk = map(index, offset + length);
+            if (chunk == null)
+                return null;
+        }
+        ByteBuffer view = chunk.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Maps chunk index of the file again, as far as the file goes now.
+     *
+     * @return the new mapping, or null if it would be shorter than needed
+     */
+    private synchronized MappedByteBuffer map(int index, int needed) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        if (index < mapped.length && mapped[index] != null
+                && mapped[index].capacity() >= needed)
+            return mapped[index];
+        long start = (long) index * CHUNK;
+        long length = Math.min(size() - start, CHUNK);
+        if (length < needed)
+            return null;
+        MappedByteBuffer chunk;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                chunk = channel().map(FileChannel.MapMode.READ_ONLY, start, length);
+                break;
+            } catch (ClosedChannelException e) {
+                if (!retry(attempt))
+                    throw e;
+            }
+        }
+        if (index >= mapped.length)
+            mapped = Arrays.copyOf(mapped, index + 1);
+        else
+            mapped = mapped.clone();
+        // the old mapping goes away once no page is being read from it
+        mapped[index] = chunk;
+        chunks = mapped;
+        return chunk;
+    }
+
+    /**
+     * An interrupted thread doing I/O closes the channel for every thread;
+     * the others reopen it once and try again.
+     */
+    private boolean retry(int attempt) {
+        return attempt == 0 && !Thread.currentThread().isInterrupted();
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen())
+            return c;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                RandomAccessFile raf;
+                try {
+                    raf = new RandomAccessFile(f, "rw");
+                } catch (FileNotFoundException e) {
+                    // e.g. a table shipped read-only
+                    raf = new RandomAccessFile(f, "r");
+                }
+                channel = raf.getChannel();
+            }
+            return channel;
+        }
+    }
+}
@@ -42,12 +42,39 @@ public class Predicate implements Serializable {
             throw new IllegalStateException("impossible to reach here");
         }
 
+        /**
+         * @return true if a value that compares to another as cmp does (a
+         *         negative number, zero or a positive number) satisfies this
+         *         operator; LIKE is taken to mean EQUALS, as IntField does
+         */
+        boolean matches(int cmp) {
+            switch (this) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+            }
+            throw new IllegalStateException("impossible to reach here");
+        }
+
     }
 
     //CHANGES
     int field;
     Op op;
     Field operand;
+    // the bytes of an ASCII string operand, which filter compares to
+    // string fields in place; null if it cannot
+    private final byte[] operandBytes;
     
     /**
      * Constructor.
@@ -63,6 +90,20 @@ public class Predicate implements Serializable {
         this.field = field;
         this.op = op;
         this.operand = operand;
+        this.operandBytes = op != Op.LIKE && operand instanceof StringField
+                ? asciiBytes(((StringField) operand).getValue()) : null;
+    }
+
+    /** @return the characters of s as bytes, or null if one is not ASCII */
+    private static byte[] asciiBytes(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = s.charAt(i);
+            if (c > 127)
+                return null;
+            bytes[i] = (byte) c;
+        }
+        return bytes;
     }
 
     /**
@@ -100,6 +141,11 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {//CHANGES
+        // read the field in place where possible instead of decoding it
+        if (operand instanceof IntField)
+            return op.matches(Integer.compare(t.getInt(field), ((IntField) operand).getValue()));
+        if (operandBytes != null && t.isEncoded(field))
+            return op.matches(t.compareString(field, operandBytes));
         return t.getField(field).compare(op, operand);
     }
 
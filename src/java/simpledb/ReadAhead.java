@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sequential read-ahead for the iterators of a DbFile. An iterator reports
+ * every page it moves to; once it has moved to the page following the
+ * previous one twice in a row, the pages after it are read into the
+ * BufferPool in the background, in scan order, so that the scan finds them
+ * cached. The read-ahead stays up to {@link BufferPool#getReadAhead} pages
+ * ahead of the scan.
+ * <p>
+ * Pages read ahead are not locked; the scan locks each of them through
+ * {@link BufferPool#getPage} when it gets there, as it would have anyway.
+ */
+abstract class ReadAhead {
+
+    /** Pages are read ahead on these threads. */
+    private static final ExecutorService IO = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Moves to the following page needed before reading ahead starts. */
+    private static final int SEQUENTIAL_RUN = 2;
+
+    // the page the scan moved to last, and how many moves in a row went to
+    // the page following the previous one
+    private Page last;
+    private int run;
+
+    // the furthest page read ahead so far
+    private volatile PageId frontier;
+    // pages read ahead that the scan has not reached yet
+    private final AtomicInteger ahead = new AtomicInteger();
+    private final AtomicBoolean reading = new AtomicBoolean();
+
+    /** @return the page following page in scan order, or null at the end */
+    abstract PageId next(Page page);
+
+    /** Tells the read-ahead that the scan moved to page. */
+    void advance(Page page) {
+        boolean sequential = last != null && page.getId().equals(next(last));
+        last = page;
+        if (!sequential) {
+            run = 0;
+            ahead.set(0);
+            frontier = null;
+            return;
+        }
+        if (ahead.get() > 0)
+            ahead.decrementAndGet();
+        if (++run < SEQUENTIAL_RUN)
+            return;
+
+        final BufferPool pool = Database.getBufferPool();
+        int window = pool.getReadAhead();
+        int pending = ahead.get();
+        if (window == 0 || pending > window / 2 || !reading.compareAndSet(false, true))
+            return;
+        // carry on from where the last batch stopped, unless the scan
+        // caught up with it
+        final PageId start = pending == 0 || frontier == null ? page.getId() : frontier;
+        final int count = window - pending;
+        IO.execute(new Runnable() {
+            public void run() {
+                try {
+                    Page p = pool.prefetch(start);
+                    for (int i = 0; i < count && p != null; i++) {
+                        PageId pid = next(p);
+                        if (pid == null)
+                            break;
+                        p = pool.prefetch(pid);
+                        if (p != null) {
+                            frontier = pid;
+                            ahead.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    reading.set(false);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which frame of the BufferPool to give up when a
+ * page has to be read into a full pool. The BufferPool reports every page
+ * that is loaded into, accessed in, or removed from one of its frames; a
+ * policy only ever deals with frame indices in [0, numFrames).
+ * <p>
+ * Policies are not thread safe on their own: the BufferPool serializes the
+ * calls it makes into them.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @see Database#resetBufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /** Value returned by {@link #victim} when no frame can be evicted. */
+    public static final int NO_FRAME = -1;
+
+    /**
+     * Sizes this policy for a pool of numFrames frames and forgets anything
+     * it knew about a previous pool. Called once by the BufferPool
+     * constructor, before any other method.
+     */
+    public void init(int numFrames);
+
+    /** A frame was filled with the page pid. */
+    public void loaded(int frame, PageId pid);
+
+    /** The page held by a frame was requested again. */
+    public void accessed(int frame);
+
+    /** The page held by a frame left the pool; the frame is now empty. */
+    public void removed(int frame);
+
+    /**
+     * The page held by a frame cannot be evicted for now, e.g. because it is
+     * dirty. The frame keeps its place in the eviction order, and keeps
+     * receiving {@link #accessed} calls, but is not chosen by
+     * {@link #victim} until it is {@link #restored}.
+     */
+    public void setAside(int frame);
+
+    /** A frame that was set aside can be evicted again. */
+    public void restored(int frame);
+
+    /**
+     * @return the frame whose page should be evicted next, or NO_FRAME if the
+     *         pool holds no page that is not set aside. The frame stays
+     *         resident until the BufferPool reports it through
+     *         {@link #removed}.
+     */
+    public int victim();
+}
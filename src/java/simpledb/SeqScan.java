@@ -16,6 +16,10 @@ public class SeqScan implements OpIterator {
     String tableAlias;
     TransactionId tid;
     DbFileIterator iterator;
+    // the columns of the table the scan returns, null for all of them
+    int[] columns;
+    // the iterator over the table's HeapFile, if it is one
+    HeapFileIterator heapIterator;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -38,14 +42,38 @@ public class SeqScan implements OpIterator {
         reset(tableid, tableAlias);
     }
 
+    /**
+     * Creates a sequential scan that returns only some columns of the
+     * specified table. On a {@link ColumnFile} only the pages of those
+     * columns are read; on other files whole tuples are read and cut down.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the indices of the columns to return, in the order they
+     *            are returned in; null returns every column
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this.tid = tid;
+        this.columns = columns == null ? null : columns.clone();
+        reset(tableid, tableAlias);
+    }
+
     //CHANGES
     private void resetTD(int tableid, String tableAlias){
         TupleDesc originalTD = Database.getCatalog().getTupleDesc(tableid);
-        Type[] tdTypes = new Type[originalTD.numFields()];
-        String[] tdFieldNames = new String[originalTD.numFields()];
-        for(int i=0; i<originalTD.numFields(); i++) {
-            tdTypes[i] = originalTD.getFieldType(i);
-            tdFieldNames[i] = tableAlias + "." + originalTD.getFieldName(i);
+        int n = columns == null ? originalTD.numFields() : columns.length;
+        Type[] tdTypes = new Type[n];
+        String[] tdFieldNames = new String[n];
+        for(int i=0; i<n; i++) {
+            int column = columns == null ? i : columns[i];
+            tdTypes[i] = originalTD.getFieldType(column);
+            tdFieldNames[i] = tableAlias + "." + originalTD.getFieldName(column);
         }
         this.td = new TupleDesc(tdTypes,tdFieldNames);
     }
@@ -83,7 +111,100 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         resetTD(tableid, tableAlias);
-        this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        DbFileIterator fileIterator = file instanceof ColumnFile && columns != null
+            ? ((ColumnFile) file).iterator(tid, columns) : file.iterator(tid);
+        heapIterator = fileIterator instanceof HeapFileIterator ? (HeapFileIterator) fileIterator : null;
+        if (columns == null || file instanceof ColumnFile)
+            this.iterator = fileIterator;
+        else
+            this.iterator = new ProjectedIterator(fileIterator, columns, td);
+    }
+
+    /**
+     * Lets the scan skip the pages of the table that cannot hold a tuple
+     * satisfying p, a predicate over the tuples of this scan, as far as the
+     * zone map of the table tells. Tuples of the pages that are read are
+     * still returned whether they satisfy p or not, so p must be applied
+     * after the scan too: {@link Filter} calls this on the SeqScan right
+     * below it. Does nothing unless the table is a HeapFile and p compares
+     * an INT field to an IntField.
+     *
+     * @see ZoneMap
+     */
+    void skipPages(Predicate p) {
+        if (heapIterator == null || !(p.getOperand() instanceof IntField))
+            return;
+        ZoneMap zones = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).getZoneMap();
+        if (zones == null)
+            return;
+        int field = columns == null ? p.getField() : columns[p.getField()];
+        heapIterator.skipPages(zones, new Predicate(field, p.getOp(), p.getOperand()));
+    }
+
+    /**
+     * @return the field of this scan's tuples that they are returned in
+     *         ascending order of, which is the key of a {@link BTreeFile},
+     *         or -1 if the table keeps no order
+     */
+    int sortedOn() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof BTreeFile))
+            return -1;
+        int key = ((BTreeFile) file).keyField();
+        if (columns == null)
+            return key;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return it, an iterator over whole tuples of this scan's table, cut
+     *         down to the columns this scan returns
+     */
+    DbFileIterator project(DbFileIterator it) {
+        return columns == null ? it : new ProjectedIterator(it, columns, td);
+    }
+
+    /** Cuts the tuples of a DbFileIterator down to some of their fields. */
+    private static class ProjectedIterator extends AbstractDbFileIterator {
+        private final DbFileIterator child;
+        private final int[] columns;
+        private final TupleDesc td;
+
+        ProjectedIterator(DbFileIterator child, int[] columns, TupleDesc td) {
+            this.child = child;
+            this.columns = columns;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext())
+                return null;
+            Tuple full = child.next();
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < columns.length; i++)
+                t.setField(i, full.getField(columns[i]));
+            t.setRecordId(full.getRecordId());
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -0,0 +1,29 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedHeapPages, which store
+ * each string in as many bytes as it has characters. A table of short strings
+ * fits many more tuples on a page than it does in a HeapFile, so scans of it
+ * read fewer pages.
+ *
+ * @see simpledb.SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    TuplePage newPage(HeapPageId pid, InputStream in) throws IOException {
+        return new SlottedHeapPage(pid, in);
+    }
+}
@@ -0,0 +1,306 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is the page of a SlottedHeapFile. Where a HeapPage gives
+ * every tuple the fixed size of its TupleDesc, a SlottedHeapPage stores each
+ * tuple in the bytes it needs: a string takes as many bytes as it has
+ * characters rather than STRING_LEN.
+ * <p>
+ * The page starts with two ints, the number of slots of the slot directory
+ * and the offset of the start of the tuple data. The slot directory follows,
+ * with an unsigned short offset and length per slot; offset 0 marks an empty
+ * slot. Tuple data fills the page from its end downwards. An int field takes
+ * 4 bytes, a string field an unsigned short length and one byte per
+ * character.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, while it is on the page. Its
+ * bytes move whenever the page is written out, which packs the tuple data
+ * together again after deletes.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes before the slot directory. */
+    static final int HEADER_SIZE = 8;
+    /** Bytes per entry of the slot directory. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // tuples by slot, null for an empty slot
+    private final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    private int emptySlots;
+    // bytes of tuple data of the tuples on the page
+    private int dataSize;
+
+    TransactionId tid;
+    private boolean dirty = false;
+
+    // the before image; null while the page is as it was when the image
+    // was set, so that it is only copied when the page is first changed
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk, in
+     * the format described above. All zeroes is an empty page.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data.length == BufferPool.getPageSize() ? data
+                : Arrays.copyOf(data, BufferPool.getPageSize()), false);
+    }
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page as they are read
+     * from in.
+     */
+    SlottedHeapPage(HeapPageId id, InputStream in) throws IOException {
+        this(id, readFully(in), true);
+    }
+
+    private SlottedHeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+        if (data.length > 1 << 16)
+            throw new IOException("pages of more than 64 KB cannot be slotted");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = buf.getInt(0);
+        for (int i = 0; i < numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            int offset = buf.getShort(entry) & 0xffff;
+            if (offset == 0) {
+                slots.add(null);
+                emptySlots++;
+                continue;
+            }
+            slots.add(readTuple(buf, offset, i));
+            dataSize += buf.getShort(entry + 2) & 0xffff;
+        }
+
+        // data is never modified, so if nobody else can modify it either,
+        // it is the before image as it is
+        synchronized (oldDataLock) {
+            oldData = owned ? data : null;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        DataInputStream dis = new DataInputStream(in);
+        dis.readFully(data);
+        dis.close();
+        return data;
+    }
+
+    private Tuple readTuple(ByteBuffer buf, int offset, int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        buf.position(offset);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(buf.getInt()));
+            } else {
+                byte[] bs = new byte[buf.getShort() & 0xffff];
+                buf.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /** @return the number of bytes t takes in the tuple data */
+    private int sizeOf(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    private void writeTuple(ByteBuffer buf, int offset, Tuple t) {
+        buf.position(offset);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(((IntField) t.getField(j)).getValue());
+            } else {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putShort((short) len);
+                // one byte per character, as StringField.serialize does
+                for (int k = 0; k < len; k++)
+                    buf.put((byte) s.charAt(k));
+            }
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // unchanged since the before image was set
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new SlottedHeapPage(pid, oldDataRef, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // the page as it is stays the before image until it is changed
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /** Copies the page into its before image before its first change. */
+    private void keepBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor. Empty slots at the end of the slot
+     * directory are left out.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = slots.size();
+        while (numSlots > 0 && slots.get(numSlots - 1) == null)
+            numSlots--;
+
+        int end = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = slots.get(i);
+            if (t == null)
+                continue;
+            int size = sizeOf(t);
+            end -= size;
+            writeTuple(buf, end, t);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) size);
+        }
+        buf.putInt(0, numSlots);
+        buf.putInt(4, end);
+        return data;
+    }
+
+    /**
+     * @return the number of bytes left for new tuples and their slots
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - slots.size() * SLOT_SIZE - dataSize;
+    }
+
+    /**
+     * @return true if t and, unless an empty slot can be reused, a new slot
+     *         for it fit on this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return sizeOf(t) + (emptySlots > 0 ? 0 : SLOT_SIZE) <= getFreeSpace();
+    }
+
+    /**
+     * @return true if a tuple whose strings are all empty, and unless an
+     *         empty slot can be reused a new slot for it, fit on this page
+     */
+    public boolean hasRoom() {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        return size + (emptySlots > 0 ? 0 : SLOT_SIZE) <= getFreeSpace();
+    }
+
+    /**
+     * Adds t to this page, in the first empty slot or a new one, and sets
+     * its RecordId.
+     * @throws DbException if t does not fit
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!hasRoomFor(t))
+            throw new DbException("Couldn't insert Tuple, not enough space left");
+        keepBeforeImage();
+        int slot = slots.size();
+        if (emptySlots > 0) {
+            slot = slots.indexOf(null);
+            slots.set(slot, t);
+            emptySlots--;
+        } else {
+            slots.add(t);
+        }
+        dataSize += sizeOf(t);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Removes t from this page; its slot stays, empty, until it is reused.
+     * @throws DbException if t is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid == null ? -1 : rid.getTupleNumber();
+        if (slot < 0 || slot >= slots.size() || slots.get(slot) == null
+                || !rid.getPageId().equals(pid))
+            throw new DbException("Couldn't delete tuple");
+        keepBeforeImage();
+        dataSize -= sizeOf(slots.get(slot));
+        slots.set(slot, null);
+        emptySlots++;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return !dirty ? null : tid;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, as they are when it
+     *         is called (calling remove on it throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(slots.size() - emptySlots);
+        for (Tuple t : slots) {
+            if (t != null)
+                tuples.add(t);
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that return their tuples in ascending
+ * order of the join fields, such as a scan of a {@link BTreeFile} on its key
+ * or an ascending {@link OrderBy}, without sorting or hashing them again.
+ * <p>
+ * An equality join merges the children: each key of the outer child is
+ * matched against the run of inner tuples with that key, which is the only
+ * thing held in memory. A band join (&lt;, &lt;=, &gt;, &gt;=) pairs each
+ * tuple of one child with a prefix of the other: for t1 &gt; t2 the inner
+ * tuples from the first up to the first that does not match, for t1 &lt; t2
+ * the outer tuples likewise. That child is rewound for every tuple of the
+ * first and read only as far as its matches go, so nothing is held in
+ * memory. The result of a band join is not ordered on the join fields.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    // equality: the current outer tuple, the run of inner tuples with its
+    // key and the next of them to pair it with, and the first inner tuple
+    // after the run, null once there is none
+    transient private Tuple outer;
+    transient private ArrayList<Tuple> run = new ArrayList<Tuple>();
+    transient private int runPos;
+    transient private Tuple ahead;
+
+    // band: the tuple of the driving child being paired with a prefix of
+    // the other, null before the first
+    transient private Tuple driving;
+
+    /**
+     * Constructor. Accepts two children sorted in ascending order on their
+     * join fields and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate cannot be merged
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("cannot merge on " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if children can be merge joined on op */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return the field of the tuples of it that it returns in ascending
+     *         order, -1 if it is not known to return them in any order
+     */
+    public static int sortedOn(OpIterator it) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() ? o.getOrderByField() : -1;
+        }
+        if (it instanceof Filter)
+            return sortedOn(((Filter) it).getChildren()[0]);
+        if (it instanceof SeqScan)
+            return ((SeqScan) it).sortedOn();
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).sortedOn();
+        if (it instanceof SortMergeJoin) {
+            JoinPredicate p = ((SortMergeJoin) it).getJoinPredicate();
+            return p.getOperator() == Predicate.Op.EQUALS ? p.getField1() : -1;
+        }
+        return -1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        outer = null;
+        ahead = null;
+        driving = null;
+        run.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        outer = null;
+        run.clear();
+        runPos = 0;
+        driving = null;
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            ahead = child2.hasNext() ? child2.next() : null;
+    }
+
+    /** @return the concatenation of t1 and t2 */
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return pred.getOperator() == Predicate.Op.EQUALS ? fetchEqual() : fetchBand();
+    }
+
+    private Tuple fetchEqual() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && runPos < run.size())
+                return merge(outer, run.get(runPos++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            runPos = 0;
+            Field key = outer.getField(pred.getField1());
+            if (!run.isEmpty() && key.compare(Predicate.Op.EQUALS, run.get(0).getField(pred.getField2())))
+                // a duplicate outer key pairs with the same run
+                continue;
+            run.clear();
+            while (ahead != null && ahead.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                ahead = child2.hasNext() ? child2.next() : null;
+            while (ahead != null && ahead.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                run.add(ahead);
+                ahead = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    private Tuple fetchBand() throws TransactionAbortedException, DbException {
+        // t1 > t2 matches a prefix of child2, t1 < t2 a prefix of child1
+        Predicate.Op op = pred.getOperator();
+        boolean drivesOuter = op == Predicate.Op.GREATER_THAN
+            || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        OpIterator driver = drivesOuter ? child1 : child2;
+        OpIterator scanned = drivesOuter ? child2 : child1;
+        while (true) {
+            if (driving != null && scanned.hasNext()) {
+                Tuple t = scanned.next();
+                Tuple t1 = drivesOuter ? driving : t;
+                Tuple t2 = drivesOuter ? t : driving;
+                if (pred.filter(t1, t2))
+                    return merge(t1, t2);
+            }
+            // the prefix ended
+            if (!driver.hasNext())
+                return null;
+            if (driving != null)
+                scanned.rewind();
+            driving = driver.next();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory. Tuples are appended to it, then read back,
+ * in the order they were appended, as often as needed. The file is removed
+ * by {@link #delete}, which also closes the readers still open on it; the
+ * operators that spill call it when they are closed or rewound.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+    // the readers that have not read to the end or been closed yet
+    private final ArrayList<Reader> readers = new ArrayList<Reader>();
+
+    SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        // no deleteOnExit: the JVM would keep every name it was given until
+        // it exits, even once delete() has removed the file
+        this.file = File.createTempFile("spill", ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /** Appends t to the file. */
+    void add(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Ends the writing of the file, if it was not ended yet, and opens it
+     * for reading from the start.
+     */
+    Reader read() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        Reader reader = new Reader();
+        readers.add(reader);
+        return reader;
+    }
+
+    /** Closes the readers of the file and removes it. */
+    void delete() {
+        for (Reader reader : new ArrayList<Reader>(readers)) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // it is being removed anyway
+            }
+        }
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // it is being removed anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a SpillFile back. */
+    class Reader {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /** @return the next tuple of the file, null once all were read */
+        Tuple next() throws IOException {
+            if (left == 0) {
+                close();
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new IOException("corrupt spill file " + file, e);
+            }
+            left--;
+            return t;
+        }
+
+        void close() throws IOException {
+            readers.remove(this);
+            in.close();
+        }
+    }
+}
@@ -18,6 +18,8 @@ public class StringAggregator implements Aggregator {
     private final int aField;
     private final Map<Field, Integer> counts;
     private String gFieldName, aFieldName;
+    // the group of every tuple when there is no grouping
+    private static final Field NO_GROUP = new IntField(Aggregator.NO_GROUPING);
 
     /**
      * Aggregate constructor
@@ -51,7 +53,7 @@ public class StringAggregator implements Aggregator {
             gFieldName = tup.getTupleDesc().getFieldName(gbField);
         }
         else
-            groupField = new IntField(Aggregator.NO_GROUPING);
+            groupField = NO_GROUP;
 
         aFieldName = tup.getTupleDesc().getFieldName(aField);
 
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -17,6 +19,9 @@ public class Tuple implements Serializable {
     Field[] Fields;
     TupleDesc TD;
     RecordId rid;
+    // the page bytes the fields not decoded yet are read from, if any
+    private transient PageBuffer source;
+    private int slot;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -32,6 +37,17 @@ public class Tuple implements Serializable {
         Fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are stored in slot of source. A field is
+     * decoded into a Field only when {@link #getField} asks for it; the typed
+     * accessors read it without decoding it.
+     */
+    Tuple(TupleDesc td, PageBuffer source, int slot) {
+        this(td);
+        this.source = source;
+        this.slot = slot;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -76,7 +92,41 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return Fields[i];
+        Field f = Fields[i];
+        if (f == null && source != null) {
+            f = source.getField(slot, i);
+            Fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an IntField, read
+     *         without decoding the field if it has not been yet
+     */
+    int getInt(int i) {
+        Field f = Fields[i];
+        if (f == null && source != null)
+            return source.getInt(slot, i);
+        return ((IntField) f).getValue();
+    }
+
+    /**
+     * @return true if the ith field has not been decoded yet, so that
+     *         {@link #compareString} can read it in place
+     */
+    boolean isEncoded(int i) {
+        return Fields[i] == null && source != null;
+    }
+
+    /**
+     * Compares the ith field, a string field that {@link #isEncoded}, to the
+     * string encoded by bytes.
+     *
+     * @see PageBuffer#compareString
+     */
+    int compareString(int i, byte[] bytes) {
+        return source.compareString(slot, i, bytes);
     }
 
     public static Tuple merge(Tuple td1, Tuple td2) {//CHANGES
@@ -114,9 +164,20 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        for (int i = 0; i < Fields.length; i++)
+            getField(i);
     	return Arrays.asList(Fields).iterator();
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // the page the fields are read from does not travel along
+        if (Fields != null) {
+            for (int i = 0; i < Fields.length; i++)
+                getField(i);
+        }
+        out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
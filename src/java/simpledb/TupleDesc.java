@@ -46,6 +46,9 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     TDItem[] TDItems;
+    // byte offset of each field in a serialized tuple, followed by the size
+    // of the tuple; computed on first use
+    private transient int[] offsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -155,12 +158,26 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {//CHANGES
-    	List<TDItem> temp = Arrays.asList(TDItems);
-    	int sum=0;
-    	for(int i=0; i<this.numFields();i++) {
-    		sum += temp.get(i).fieldType.getLen();
-    	}
-        return sum;
+        return offsets()[TDItems.length];
+    }
+
+    /**
+     * @return the offset in bytes of the ith field from the start of a
+     *         serialized tuple
+     */
+    int getOffset(int i) {
+        return offsets()[i];
+    }
+
+    private int[] offsets() {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[TDItems.length + 1];
+            for (int i = 0; i < TDItems.length; i++)
+                o[i + 1] = o[i] + TDItems[i].fieldType.getLen();
+            offsets = o;
+        }
+        return o;
     }
 
     /**
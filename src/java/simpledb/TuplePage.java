@@ -0,0 +1,37 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile, in whichever format the file stores its tuples.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+interface TuplePage extends Page {
+
+    /** @return an iterator over the tuples on this page */
+    Iterator<Tuple> iterator();
+
+    /** @return true if t would fit on this page */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true unless this page is too full for any tuple, even the
+     *         shortest its format stores; then the page can be skipped by
+     *         inserts until a tuple is deleted from it
+     */
+    boolean hasRoom();
+
+    /**
+     * Adds t to this page and sets its RecordId.
+     * @throws DbException if t does not fit
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Removes t from this page.
+     * @throws DbException if t is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+}
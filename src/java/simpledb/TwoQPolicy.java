@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page read into the pool first
+ * enters the FIFO queue A1in; re-references while it sits there are treated
+ * as correlated and ignored. Pages evicted from A1in are remembered, without
+ * their data, in the ghost queue A1out; a page that is requested again while
+ * it is remembered was evidently not a one-off and is promoted to the LRU
+ * queue Am. Sequential scans thus only ever cycle through A1in and leave the
+ * hot pages in Am alone.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    private FrameList a1in;
+    private FrameList am;
+    private PageId[] pages;
+    private boolean[] aside;
+    private LinkedHashSet<PageId> a1out;
+    // target size of A1in and capacity of A1out, as in the paper's
+    // recommended 25% / 50% of the pool
+    private int kin;
+    private int kout;
+
+    public void init(int numFrames) {
+        a1in = new FrameList(numFrames);
+        am = new FrameList(numFrames);
+        pages = new PageId[numFrames];
+        aside = new boolean[numFrames];
+        a1out = new LinkedHashSet<PageId>();
+        kin = Math.max(1, numFrames / 4);
+        kout = Math.max(1, numFrames / 2);
+    }
+
+    public void loaded(int frame, PageId pid) {
+        pages[frame] = pid;
+        if (a1out.remove(pid))
+            am.addTail(frame);
+        else
+            a1in.addTail(frame);
+    }
+
+    public void accessed(int frame) {
+        if (am.contains(frame))
+            am.moveToTail(frame);
+    }
+
+    public void removed(int frame) {
+        if (a1in.contains(frame)) {
+            a1in.remove(frame);
+            a1out.add(pages[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(frame);
+        }
+        pages[frame] = null;
+        aside[frame] = false;
+    }
+
+    public void setAside(int frame) {
+        aside[frame] = true;
+    }
+
+    public void restored(int frame) {
+        aside[frame] = false;
+    }
+
+    public int victim() {
+        int in = a1in.head(aside);
+        int m = am.head(aside);
+        if (in != FrameList.NIL && (a1in.size() > kin || m == FrameList.NIL))
+            return in;
+        return m;
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and the largest
+ * value of each INT column on the page. A scan with a predicate on such a
+ * column skips the pages whose range cannot satisfy it, see
+ * {@link HeapFileIterator#skipPages}.
+ * <p>
+ * Ranges only ever widen: inserts widen the range of their page, and pages
+ * are written out with a range that covers every tuple on them. A delete
+ * leaves the range as it was, which may then be wider than needed but never
+ * too narrow. The range of a page nobody has described yet is unknown, and
+ * such a page is never skipped; reading the page fills its range in.
+ * <p>
+ * Ranges are kept in a side file next to the data file, "t.dat.zones" for
+ * "t.dat", which is written whenever a page of the data file is, before the
+ * page. It holds one record per page: a byte that is 1 if the range is known,
+ * then the minimum and the maximum of each INT column as ints. A tool that
+ * rewrites the data file wholesale must rewrite or delete the side file, as
+ * HeapFileEncoder does.
+ */
+final class ZoneMap {
+
+    /** Appended to the name of the data file to name the side file. */
+    static final String SUFFIX = ".zones";
+
+    private final File file;
+    private PageChannel channel;
+    // the INT columns of the table, and the position of each column among
+    // them, -1 for a column of another type
+    private final int[] intColumns;
+    private final int[] position;
+    private final int recordSize;
+
+    private boolean loaded;
+    private final BitSet known = new BitSet();
+    // minimum and maximum of INT column k of page p at p * intColumns.length + k
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+
+    private ZoneMap(File dataFile, int[] intColumns, int numFields) {
+        this.file = new File(dataFile.getPath() + SUFFIX);
+        this.intColumns = intColumns;
+        this.position = new int[numFields];
+        Arrays.fill(position, -1);
+        for (int k = 0; k < intColumns.length; k++)
+            position[intColumns[k]] = k;
+        this.recordSize = 1 + 8 * intColumns.length;
+    }
+
+    /**
+     * @return the zone map of the HeapFile stored in dataFile, null if the
+     *         table has no INT column
+     */
+    static ZoneMap forFile(File dataFile, TupleDesc td) {
+        int n = 0;
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                columns[n++] = i;
+        }
+        return n == 0 ? null : new ZoneMap(dataFile, Arrays.copyOf(columns, n), td.numFields());
+    }
+
+    /**
+     * Writes the side-file record of a page to out, for a table of the given
+     * types whose INT column i ranges from mins[i] to maxs[i] on the page.
+     * Lets {@link HeapFileEncoder} write the side file along with the table.
+     */
+    static void writeRecord(DataOutputStream out, Type[] types, int[] mins, int[] maxs)
+            throws IOException {
+        out.writeByte(1);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.INT_TYPE) {
+                out.writeInt(mins[i]);
+                out.writeInt(maxs[i]);
+            }
+        }
+    }
+
+    /** Reads the side file, if there is one, on first use. */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!file.exists())
+            return;
+        try {
+            int size = (int) channel().size();
+            byte[] data = new byte[size];
+            channel().read(0, data);
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            for (int p = 0; (p + 1) * recordSize <= size; p++) {
+                if (buf.get(p * recordSize) != 1)
+                    continue;
+                grow(p);
+                known.set(p);
+                for (int k = 0; k < intColumns.length; k++) {
+                    mins[p * intColumns.length + k] = buf.getInt(p * recordSize + 1 + 8 * k);
+                    maxs[p * intColumns.length + k] = buf.getInt(p * recordSize + 5 + 8 * k);
+                }
+            }
+        } catch (IOException e) {
+            // the ranges are a hint; without them no page is skipped
+            known.clear();
+        }
+    }
+
+    private PageChannel channel() {
+        if (channel == null)
+            channel = new PageChannel(file);
+        return channel;
+    }
+
+    private void grow(int page) {
+        int needed = (page + 1) * intColumns.length;
+        if (mins.length < needed) {
+            int length = Math.max(needed, mins.length * 2);
+            mins = Arrays.copyOf(mins, length);
+            maxs = Arrays.copyOf(maxs, length);
+        }
+    }
+
+    /** Makes the range of page known and empty, if it was unknown. */
+    private void describe(int page) {
+        load();
+        if (known.get(page))
+            return;
+        grow(page);
+        known.set(page);
+        for (int k = 0; k < intColumns.length; k++) {
+            mins[page * intColumns.length + k] = Integer.MAX_VALUE;
+            maxs[page * intColumns.length + k] = Integer.MIN_VALUE;
+        }
+    }
+
+    /** @return true if the range of page is known */
+    synchronized boolean isKnown(int page) {
+        load();
+        return known.get(page);
+    }
+
+    /** Widens the range of page to cover t. */
+    synchronized void include(int page, Tuple t) {
+        describe(page);
+        for (int k = 0; k < intColumns.length; k++) {
+            int v = t.getInt(intColumns[k]);
+            int i = page * intColumns.length + k;
+            if (v < mins[i])
+                mins[i] = v;
+            if (v > maxs[i])
+                maxs[i] = v;
+        }
+    }
+
+    /** Widens the range of page p to cover every tuple on it. */
+    synchronized void include(TuplePage p) {
+        int page = p.getId().getPageNumber();
+        describe(page);
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            include(page, it.next());
+    }
+
+    /** Writes the range of page to the side file. */
+    synchronized void persist(int page) throws IOException {
+        load();
+        if (!known.get(page))
+            return;
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        buf.put((byte) 1);
+        for (int k = 0; k < intColumns.length; k++) {
+            buf.putInt(mins[page * intColumns.length + k]);
+            buf.putInt(maxs[page * intColumns.length + k]);
+        }
+        channel().write((long) page * recordSize, buf.array());
+    }
+
+    /** Forgets the ranges of the pages from page pages on, which were cut off the file. */
+    synchronized void truncate(int pages) throws IOException {
+        load();
+        known.clear(pages, Math.max(pages, known.length()));
+        if (file.exists())
+            channel().truncate(Math.min(channel().size(), (long) pages * recordSize));
+    }
+
+    /**
+     * @return false if no tuple of page can have a value of field that
+     *         satisfies op against value, true if some may
+     */
+    synchronized boolean mayMatch(int page, int field, Predicate.Op op, int value) {
+        load();
+        int k = position[field];
+        if (k == -1 || !known.get(page))
+            return true;
+        int min = mins[page * intColumns.length + k];
+        int max = maxs[page * intColumns.length + k];
+        if (min > max)
+            // no tuple on the page
+            return false;
+        return op.matches(Integer.compare(min, value))
+            || op.matches(Integer.compare(max, value))
+            || (min < value && value < max && op.matches(0));
+    }
+}
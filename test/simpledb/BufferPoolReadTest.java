@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger();
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private InstrumentedHeapFile createTable(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * Threads requesting the same pages at the same time must share a single
+     * read of each page.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        final int PAGES = 20;
+        final InstrumentedHeapFile table = createTable(PAGES);
+        final TransactionId tid = new TransactionId();
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int p = 0; p < PAGES; p++) {
+                            HeapPageId pid = new HeapPageId(table.getId(), p);
+                            Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!pid.equals(page.getId()))
+                                failures.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(0, failures.get());
+        assertEquals(PAGES, table.readCount.get());
+    }
+
+    /**
+     * Concurrent scans of a table larger than the pool must each see every
+     * page, even though they keep evicting each other's pages.
+     */
+    @Test public void concurrentScansWithEviction() throws Exception {
+        final int PAGES = 30;
+        final InstrumentedHeapFile table = createTable(PAGES);
+        Database.resetBufferPool(8);
+        final TransactionId tid = new TransactionId();
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 5; round++) {
+                            for (int p = 0; p < PAGES; p++) {
+                                HeapPageId pid = new HeapPageId(table.getId(), p);
+                                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                                if (!pid.equals(page.getId()) || page.getNumEmptySlots() != 0)
+                                    failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * A sequential scan has the pages ahead of it read in the background,
+     * and still reads every page exactly once.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        final int PAGES = 20;
+        final int TUPLES_PER_PAGE = 992;
+        InstrumentedHeapFile table = createTable(PAGES);
+        TransactionId tid = new TransactionId();
+
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int count = 0;
+        // move into the fourth page
+        while (count <= 3 * TUPLES_PER_PAGE) {
+            it.next();
+            count++;
+        }
+        for (int wait = 0; wait < 100 && table.readCount.get() <= 4; wait++)
+            Thread.sleep(10);
+        assertTrue(table.readCount.get() > 4);
+
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(PAGES * TUPLES_PER_PAGE, count);
+        assertEquals(PAGES, table.readCount.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
@@ -1,7 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +99,48 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for the table options of Catalog.loadSchema()
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("plain (a int, b string)\n");
+        w.write("slotted (a int, b string) slotted\n");
+        w.write("packed (a int) compressed mapped\n");
+        w.write("columns (a int, b int pk) columnar\n");
+        w.close();
+
+        Catalog catalog = Database.getCatalog();
+        catalog.loadSchema(schema.getPath());
+        DbFile plain = catalog.getDatabaseFile(loadedId("plain"));
+        assertEquals(HeapFile.class, plain.getClass());
+        assertFalse(((HeapFile) plain).isMapped());
+        assertTrue(catalog.getDatabaseFile(loadedId("slotted")) instanceof SlottedHeapFile);
+        DbFile packed = catalog.getDatabaseFile(loadedId("packed"));
+        assertTrue(packed instanceof CompressedHeapFile);
+        assertTrue(((HeapFile) packed).isMapped());
+        int columns = loadedId("columns");
+        assertTrue(catalog.getDatabaseFile(columns) instanceof ColumnFile);
+        assertEquals("b", catalog.getPrimaryKey(columns));
+    }
+
+    /** @return the id of the table called name, comparing names by value */
+    private static int loadedId(String name) {
+        Catalog catalog = Database.getCatalog();
+        for (Iterator<Integer> it = catalog.tableIdIterator(); it.hasNext(); ) {
+            int id = it.next();
+            if (name.equals(catalog.getTableName(id)))
+                return id;
+        }
+        throw new NoSuchElementException(name);
+    }
+
     /**
      * JUnit suite target
      */
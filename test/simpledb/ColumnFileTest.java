@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private TransactionId tid;
+    private ColumnFile cf;
+    private String name;
+    // pages read from disk, by column
+    private int[] reads;
+
+    @Before public void setUp() throws Exception {
+        TupleDesc td = new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "id", "qty", "status", "price" });
+        File f = File.createTempFile("columns", "dat");
+        f.delete();
+        reads = new int[td.numFields()];
+        cf = new ColumnFile(f, td) {
+            public Page readPage(PageId pid) {
+                reads[((ColumnPageId) pid).getColumn()]++;
+                return super.readPage(pid);
+            }
+        };
+        for (int i = 0; i < td.numFields(); i++)
+            cf.getColumnFile(i).deleteOnExit();
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(cf, name);
+
+        // in transactions small enough for the dirty pages to fit the pool
+        for (int i = 0; i < ROWS; i += 500) {
+            tid = new TransactionId();
+            for (int j = i; j < Math.min(i + 500, ROWS); j++)
+                Database.getBufferPool().insertTuple(tid, cf.getId(), row(j));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple row(int i) {
+        Tuple t = new Tuple(cf.getTupleDesc());
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(i % 7));
+        t.setField(2, new StringField(i % 2 == 0 ? "open" : "closed", Type.STRING_LEN));
+        t.setField(3, new IntField(i * 10));
+        return t;
+    }
+
+    /** Drops the cached pages, so that scans read from disk again. */
+    private void coldCache() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        java.util.Arrays.fill(reads, 0);
+    }
+
+    /**
+     * A scan of all columns returns every row as inserted.
+     */
+    @Test public void scanAll() throws Exception {
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            Tuple expected = row(count);
+            for (int j = 0; j < 4; j++)
+                assertEquals(expected.getField(j), t.getField(j));
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * A projected SeqScan reads the pages of its columns and no others.
+     */
+    @Test public void projectedScan() throws Exception {
+        coldCache();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t", new int[] { 3, 1 });
+        assertEquals("t.price", scan.getTupleDesc().getFieldName(0));
+        assertEquals("t.qty", scan.getTupleDesc().getFieldName(1));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(count * 10), t.getField(0));
+            assertEquals(new IntField(count % 7), t.getField(1));
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        assertEquals(0, reads[0]);
+        assertEquals(0, reads[2]);
+        assertEquals(cf.numPages(1), reads[1]);
+        assertEquals(cf.numPages(3), reads[3]);
+    }
+
+    /**
+     * The same projected SeqScan on a HeapFile cuts down whole tuples.
+     */
+    @Test public void projectedHeapScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 100, null, new ArrayList<ArrayList<Integer>>());
+        SeqScan scan = new SeqScan(tid, hf.getId(), "h", new int[] { 2 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        scan.open();
+        DbFileIterator full = hf.iterator(tid);
+        full.open();
+        while (full.hasNext()) {
+            assertTrue(scan.hasNext());
+            assertEquals(full.next().getField(2), scan.next().getField(0));
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        full.close();
+    }
+
+    /**
+     * Deleted rows disappear from every column and their slots are reused.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t", new int[] { 1, 0 });
+        scan.open();
+        int deleted = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() == 0
+                    && ((IntField) t.getField(1)).getValue() < 500) {
+                Database.getBufferPool().deleteTuple(tid, t);
+                deleted++;
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        int pages = cf.numPages(0);
+        for (int i = 0; i < deleted; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), row(ROWS + i));
+        assertEquals(pages, cf.numPages(0));
+
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            Tuple expected = row(id);
+            for (int j = 1; j < 4; j++)
+                assertEquals(expected.getField(j), t.getField(j));
+            assertTrue(id >= ROWS || id >= 500 || id % 7 != 0);
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * The planner scans only the columns a query refers to.
+     */
+    @Test public void plannerProjects() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.qty", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("t.price", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(cf.getId(), 1000));
+
+        coldCache();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            assertEquals(30, ((IntField) plan.next().getField(0)).getValue() % 70);
+            count++;
+        }
+        plan.close();
+        assertEquals((ROWS + 3) / 7, count);
+        assertEquals(0, reads[0]);
+        assertEquals(0, reads[2]);
+        assertTrue(reads[1] > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
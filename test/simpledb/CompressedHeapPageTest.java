@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapPageTest extends SimpleDbTestBase {
+    private static final String[] STATUS = { "open", "closed", "pending" };
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        HeapFile hf = new CompressedHeapFile(File.createTempFile("compressed", "dat"), td);
+        hf.getFile().deleteOnExit();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    /** A tuple of an ascending id, a status and a category. */
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(STATUS[(i / 50) % STATUS.length], Type.STRING_LEN));
+        t.setField(2, new IntField(i / 100));
+        return t;
+    }
+
+    /** @return the number of tuples a HeapPage of the table holds */
+    private int heapPageTuples() {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static void assertTupleEquals(Tuple expected, Tuple actual) {
+        for (int j = 0; j < expected.getTupleDesc().numFields(); j++)
+            assertEquals(expected.getField(j), actual.getField(j));
+    }
+
+    /**
+     * Low-cardinality columns compress: the page holds several times more
+     * tuples than a HeapPage, and reads back what was written.
+     */
+    @Test public void fillAndRead() throws Exception {
+        CompressedHeapPage page = new CompressedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n)))
+            page.insertTuple(tuple(n++));
+        assertTrue(n > 5 * heapPageTuples());
+        assertTrue(page.getFreeSpace() >= 0);
+        try {
+            page.insertTuple(tuple(n));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        CompressedHeapPage read = new CompressedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTupleEquals(tuple(i), t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Extreme and random values, and strings longer than STRING_LEN, survive
+     * the encoding; only the size check decides when the page is full.
+     */
+    @Test public void randomValues() throws Exception {
+        CompressedHeapPage page = new CompressedHeapPage(pid, HeapPage.createEmptyPageData());
+        Random r = new Random(15);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++)
+            longString.append('x');
+        for (int i = 0; ; i++) {
+            Tuple t = new Tuple(td);
+            int v = i % 3 == 0 ? Integer.MIN_VALUE : i % 3 == 1 ? Integer.MAX_VALUE : r.nextInt();
+            t.setField(0, new IntField(v));
+            t.setField(1, new StringField(i == 0 ? longString.toString() : "s" + r.nextInt(1000), Type.STRING_LEN));
+            t.setField(2, new IntField(-r.nextInt(5)));
+            if (!page.hasRoomFor(t))
+                break;
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        assertTrue(page.getFreeSpace() >= 0);
+
+        Iterator<Tuple> it = new CompressedHeapPage(pid, page.getPageData()).iterator();
+        for (Tuple t : inserted)
+            assertTupleEquals(t, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted tuples leave the other tuples' RecordIds alone, and their
+     * slots are reused.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        CompressedHeapPage page = new CompressedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] ts = new Tuple[200];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = tuple(i);
+            page.insertTuple(ts[i]);
+        }
+        page.deleteTuple(ts[60]);
+        page.deleteTuple(ts[61]);
+        try {
+            page.deleteTuple(ts[60]);
+            fail("tuple was deleted already");
+        } catch (DbException e) {
+            // expected
+        }
+
+        CompressedHeapPage read = new CompressedHeapPage(pid, page.getPageData());
+        int count = 0;
+        for (Iterator<Tuple> it = read.iterator(); it.hasNext(); count++) {
+            Tuple t = it.next();
+            assertEquals(((IntField) t.getField(0)).getValue(), t.getRecordId().getTupleNumber());
+        }
+        assertEquals(198, count);
+
+        Tuple t = tuple(1000);
+        read.insertTuple(t);
+        assertEquals(60, t.getRecordId().getTupleNumber());
+        Iterator<Tuple> it = new CompressedHeapPage(pid, read.getPageData()).iterator();
+        for (int i = 0; i < 60; i++)
+            it.next();
+        assertTupleEquals(t, it.next());
+        assertTupleEquals(tuple(62), it.next());
+    }
+
+    /**
+     * Filling an empty slot reuses the encoding hasRoomFor made for the
+     * tuple only while the tuple has the same fields, and the page is
+     * written out as it is afterwards.
+     */
+    @Test public void reuseCheckedEncoding() throws Exception {
+        CompressedHeapPage page = new CompressedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] ts = new Tuple[10];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = tuple(i);
+            page.insertTuple(ts[i]);
+        }
+        page.deleteTuple(ts[3]);
+        page.deleteTuple(ts[4]);
+
+        Tuple t = tuple(1000);
+        assertTrue(page.hasRoomFor(t));
+        t.setField(1, new StringField("reopened", Type.STRING_LEN));
+        page.insertTuple(t);
+        Tuple u = tuple(2000);
+        page.insertTuple(u);
+        int free = page.getFreeSpace();
+
+        CompressedHeapPage read = new CompressedHeapPage(pid, page.getPageData());
+        assertEquals(free, read.getFreeSpace());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < 3; i++)
+            it.next();
+        assertTupleEquals(t, it.next());
+        assertTupleEquals(u, it.next());
+        assertTupleEquals(tuple(5), it.next());
+    }
+
+    /**
+     * A CompressedHeapFile fills pages through the BufferPool and scans back
+     * every tuple.
+     */
+    @Test public void fileInsertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        int n = 5000;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() * 5 * heapPageTuples() < n);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[i]);
+            seen[i] = true;
+            assertTupleEquals(tuple(i), t);
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /** @return a relation of two columns, the join key and the row number */
+  private static int[] relation(int[] keys) {
+    int[] data = new int[2 * keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      data[2 * i] = keys[i];
+      data[2 * i + 1] = i;
+    }
+    return data;
+  }
+
+  /**
+   * Joins the relations with the given keys within the memory budget, and
+   * checks the result, and the result after a rewind, against a nested
+   * loops join.
+   */
+  private void assertJoins(int[] keys1, int[] keys2, int memoryTuples) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    TestUtil.assertJoinsLikeNestedLoops(new HashEquiJoin(pred,
+        TestUtil.createTupleList(2, relation(keys1)),
+        TestUtil.createTupleList(2, relation(keys2)), memoryTuples),
+        pred, TestUtil.createTupleList(2, relation(keys1)),
+        TestUtil.createTupleList(2, relation(keys2)));
+  }
+
+  /**
+   * An outer relation many times the budget is split into partitions that
+   * are spilled and joined one at a time.
+   */
+  @Test public void spills() throws Exception {
+    int[] keys1 = new int[3000];
+    for (int i = 0; i < keys1.length; i++)
+      keys1[i] = i % 500;
+    int[] keys2 = new int[1000];
+    for (int i = 0; i < keys2.length; i++)
+      keys2[i] = keys2.length - i;
+    assertJoins(keys1, keys2, 100);
+  }
+
+  /**
+   * A key that alone takes more than the budget cannot be split; it is
+   * joined a budget's worth of outer tuples at a time.
+   */
+  @Test public void skewed() throws Exception {
+    int[] keys1 = new int[1000];
+    for (int i = 0; i < keys1.length; i++)
+      keys1[i] = i % 3 == 0 ? i : 7;
+    int[] keys2 = new int[] { 7, 3, 7, 8, 999, 7, 0 };
+    assertJoins(keys1, keys2, 50);
+  }
+
+  /**
+   * Join fields of a type other than INT are hashed as fields, spilled and
+   * split the same way.
+   */
+  @Test public void stringKeys() throws Exception {
+    Object[] data1 = new Object[2 * 300];
+    for (int i = 0; i < 300; i++) {
+      data1[2 * i] = "k" + (i % 40);
+      data1[2 * i + 1] = i;
+    }
+    Object[] data2 = new Object[2 * 50];
+    for (int i = 0; i < 50; i++) {
+      data2[2 * i] = "k" + i;
+      data2[2 * i + 1] = i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    TestUtil.assertJoinsLikeNestedLoops(new HashEquiJoin(pred,
+        TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2), 20),
+        pred, TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2));
+  }
+
+  /**
+   * An outer relation within the budget is joined in memory.
+   */
+  @Test public void inMemory() throws Exception {
+    assertJoins(new int[] { 1, 2, 2, 3 }, new int[] { 2, 3, 4, 2 }, HashEquiJoin.MAP_SIZE);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
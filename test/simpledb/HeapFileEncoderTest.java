@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Converts text with both encoders, and checks they write the same table
+     * and zone map.
+     */
+    private void assertSameOutput(String text) throws Exception {
+        File in = tempFile(".txt");
+        FileWriter w = new FileWriter(in);
+        w.write(text);
+        w.close();
+
+        File sequential = tempFile(".dat");
+        File parallel = tempFile(".dat");
+        HeapFileEncoder.convert(in, sequential, BufferPool.getPageSize(), 3, TYPES, ',');
+        HeapFileEncoder.convert(in, parallel, BufferPool.getPageSize(), 3, TYPES, ',', 4);
+
+        assertArrayEquals(Files.readAllBytes(sequential.toPath()),
+                Files.readAllBytes(parallel.toPath()));
+        assertArrayEquals(Files.readAllBytes(new File(sequential.getPath() + ZoneMap.SUFFIX).toPath()),
+                Files.readAllBytes(new File(parallel.getPath() + ZoneMap.SUFFIX).toPath()));
+    }
+
+    /**
+     * Input that spans many batches, with blank lines, Windows line ends and
+     * strings too long for the field, is encoded as convert encodes it.
+     */
+    @Test public void manyBatches() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append(i).append(", name").append(i % 97).append(" ,").append(-i % 13);
+            text.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0)
+                text.append("\n\n");
+            if (i == 5000)
+                text.append(i).append(',').append(new String(new char[300]).replace('\0', 'x'))
+                        .append(",1\n");
+        }
+        assertSameOutput(text.toString());
+    }
+
+    /**
+     * An input without records still makes a table of one empty page.
+     */
+    @Test public void empty() throws Exception {
+        assertSameOutput("");
+        assertSameOutput("\n\r\n\n");
+    }
+
+    /**
+     * A page worth of records exactly makes one page.
+     */
+    @Test public void fullPage() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / ((2 * Type.INT_TYPE.getLen()
+                + Type.STRING_TYPE.getLen()) * 8 + 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < perPage * HeapFileEncoder.PAGES_PER_BATCH; i++)
+            text.append(i).append(",a,").append(i).append('\n');
+        assertSameOutput(text.toString());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -77,6 +77,76 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a mapped file, including a page
+     * appended after the file was first mapped.
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        twoPageFile.setMapped(true);
+        assertTrue(twoPageFile.isMapped());
+
+        HeapPage full = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 0));
+        HeapPage page = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 1));
+        assertEquals(0, full.getNumEmptySlots());
+        assertEquals(504 - 16, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(15));
+        assertFalse(page.isSlotUsed(16));
+
+        HeapPageId appended = new HeapPageId(twoPageFile.getId(), 2);
+        twoPageFile.writePage(new HeapPage(appended, full.getPageData()));
+        assertEquals(3, twoPageFile.numPages());
+        assertEquals(0, ((HeapPage) twoPageFile.readPage(appended)).getNumEmptySlots());
+    }
+
+    /**
+     * A page read out of the mapping keeps its before image when it is
+     * changed and written back underneath it.
+     */
+    @Test
+    public void mappedPageBeforeImage() throws Exception {
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        mapped.setMapped(true);
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        mapped.writePage(page);
+
+        assertEquals(504 - 20, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(504 - 19, page.getNumEmptySlots());
+        assertEquals(504 - 19, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Tuples read out of the mapping keep their values when the slot they
+     * came from is rewritten after the page was evicted.
+     */
+    @Test
+    public void mappedTuplesKeepTheirValues() throws Exception {
+        ArrayList<ArrayList<Integer>> values = new ArrayList<ArrayList<Integer>>();
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 20, null, values);
+        mapped.setMapped(true);
+        BufferPool pool = Database.getBufferPool();
+
+        DbFileIterator it = mapped.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        pool.transactionComplete(tid);
+        pool.discardPage(t.getRecordId().getPageId());
+
+        TransactionId writer = new TransactionId();
+        pool.deleteTuple(writer, t);
+        pool.insertTuple(writer, mapped.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        pool.transactionComplete(writer);
+
+        tid = new TransactionId();
+        assertEquals(new IntField(values.get(0).get(0)), t.getField(0));
+        assertEquals(new IntField(values.get(0).get(1)), t.getField(1));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
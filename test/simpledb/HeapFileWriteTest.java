@@ -1,5 +1,10 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +48,173 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A tuple too wide for even an empty page is refused rather than
+     * retried forever.
+     */
+    @Test(timeout = 10000, expected = DbException.class)
+    public void tupleWiderThanPage() throws Exception {
+        Type[] types = new Type[40];
+        Arrays.fill(types, Type.STRING_TYPE);
+        TupleDesc td = new TupleDesc(types);
+        HeapFile wide = new HeapFile(empty.getFile(), td);
+        Database.getCatalog().addTable(wide, "wide");
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, new StringField("x", Type.STRING_LEN));
+        wide.insertTuple(tid, t);
+    }
+
+    /**
+     * Inserts go straight to a page with room: full pages are not read
+     * again, and a page that had a tuple deleted is filled first.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        final int[] reads = new int[1];
+        HeapFile counted = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reads[0]++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counted, "counted");
+
+        for (int i = 0; i < 504 * 2; ++i)
+            counted.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // only the new page is read
+        reads[0] = 0;
+        tid = new TransactionId();
+        counted.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, counted.numPages());
+        assertEquals(1, reads[0]);
+
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(counted.getId(), 0), Permissions.READ_WRITE);
+        counted.deleteTuple(tid, first.iterator().next());
+        Tuple t = Utility.getHeapTuple(1, 2);
+        counted.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, reads[0]);
+    }
+
+    /**
+     * Unit test for HeapFile.compact(): the tuples left after a large delete
+     * are moved to the first page and the other pages are cut off the file.
+     */
+    @Test public void compact() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < 504 * 4; ++i)
+            pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        pool.transactionComplete(tid);
+        assertEquals(4, empty.numPages());
+
+        // keep every fourth tuple
+        tid = new TransactionId();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            pool.deleteTuple(tid, t);
+        pool.transactionComplete(tid);
+
+        assertEquals(504 * 3 / 4, empty.compact());
+        assertEquals(1, empty.numPages());
+
+        tid = new TransactionId();
+        HashSet<Integer> values = new HashSet<Integer>();
+        it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+            values.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(504, values.size());
+        for (int i = 0; i < 504 * 4; i += 4)
+            assertTrue(values.contains(i));
+
+        // nothing left to do
+        pool.transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(0, empty.compact());
+    }
+
+    /**
+     * A page that compact() moves only some tuples off is used by later
+     * inserts instead of a new page.
+     */
+    @Test public void compactLeavesRoomOnSourcePage() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < 504 * 3; ++i)
+            pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        pool.transactionComplete(tid);
+
+        // make room for 10 tuples on the first page only
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++)
+            pool.deleteTuple(tid, it.next());
+        it.close();
+        pool.transactionComplete(tid);
+
+        assertEquals(10, empty.compact());
+        assertEquals(3, empty.numPages());
+
+        tid = new TransactionId();
+        pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Transactions inserting into the same page at once wait for each other
+     * instead of deadlocking.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        final BufferPool pool = Database.getBufferPool();
+        pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(0, 2));
+        pool.transactionComplete(tid);
+
+        final AtomicInteger aborted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 25; j++) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(j, 2));
+                                pool.transactionComplete(tid);
+                            } catch (TransactionAbortedException e) {
+                                aborted.incrementAndGet();
+                                pool.transactionComplete(tid, false);
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(0, aborted.get());
+        assertEquals(1, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
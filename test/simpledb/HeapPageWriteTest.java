@@ -2,8 +2,11 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertArrayEquals;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +129,51 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples were only
+     * partly decoded before it was modified.
+     */
+    @Test public void pageDataAfterPartialDecode() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple added = Utility.getHeapTuple(new int[] { 1, 2 });
+        page.insertTuple(added);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        int count = 0;
+        while (expected.hasNext()) {
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+            count++;
+        }
+        assertFalse(actual.hasNext());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, count);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).getBeforeImage().getPageData());
+    }
+
+    /**
+     * Unit test for HeapPage.setBeforeImage(): the before image is the page
+     * as it was when the image was set, however often it changes after.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
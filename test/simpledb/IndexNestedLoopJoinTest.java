@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private BTreeFile f;
+  private TransactionId tid;
+  private OpIterator outer;
+
+  /**
+   * Builds a B+ tree of several levels, keyed on its first field, whose keys
+   * repeat across leaf pages, and outer tuples with keys both in and out of
+   * the tree.
+   */
+  @Before public void setUp() throws Exception {
+    f = BTreeUtility.createRandomBTreeFile(2, 5000, 600, null, null, 0);
+    tid = new TransactionId();
+    int[] keys = new int[2 * 100];
+    for (int i = 0; i < 100; i++) {
+      keys[2 * i] = i * 7;
+      keys[2 * i + 1] = i;
+    }
+    outer = TestUtil.createTupleList(2, keys);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.canProbe()
+   */
+  @Test public void canProbe() throws Exception {
+    OpIterator scan = new SeqScan(tid, f.getId(), "b");
+    assertTrue(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1), scan));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0), outer));
+  }
+
+  /**
+   * Looking keys up in the index finds what a nested loops join does.
+   */
+  @Test public void lookups() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertTrue(TestUtil.assertJoinsLikeNestedLoops(
+        new IndexNestedLoopJoin(pred, outer, new SeqScan(tid, f.getId(), "b")),
+        pred, outer, new SeqScan(tid, f.getId(), "b")).size() > 0);
+  }
+
+  /**
+   * Filters above the inner scan apply to the tuples found in the index.
+   */
+  @Test public void filtered() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(300));
+    assertTrue(TestUtil.assertJoinsLikeNestedLoops(
+        new IndexNestedLoopJoin(pred, outer, new Filter(p, new SeqScan(tid, f.getId(), "b"))),
+        pred, outer, new Filter(p, new SeqScan(tid, f.getId(), "b"))).size() > 0);
+  }
+
+  /**
+   * The tuples found in the index are projected like those of the inner
+   * scan, before its filters apply to them.
+   */
+  @Test public void projected() throws Exception {
+    int[] columns = { 1, 0 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(300));
+    assertTrue(TestUtil.assertJoinsLikeNestedLoops(
+        new IndexNestedLoopJoin(pred, outer, new Filter(p, new SeqScan(tid, f.getId(), "b", columns))),
+        pred, outer, new Filter(p, new SeqScan(tid, f.getId(), "b", columns))).size() > 0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
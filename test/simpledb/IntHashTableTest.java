@@ -0,0 +1,52 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Keys are numbered in the order they are first added, across growth,
+   * and keys never added are not found.
+   */
+  @Test public void rows() {
+    IntHashTable table = new IntHashTable(2);
+    HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    Random r = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      // negative keys, and keys that agree in their low bits
+      int key = (r.nextInt(5000) - 2500) << (i % 3 == 0 ? 16 : 0);
+      Integer row = expected.get(key);
+      if (row == null) {
+        row = expected.size();
+        expected.put(key, row);
+      }
+      assertEquals(row.intValue(), table.add(key));
+    }
+    assertEquals(expected.size(), table.size());
+    for (Integer key : expected.keySet()) {
+      assertEquals(expected.get(key).intValue(), table.get(key));
+      assertEquals(key.intValue(), table.key(expected.get(key)));
+    }
+    assertEquals(-1, table.get(1 << 30));
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.get(0));
+    assertEquals(0, table.add(7));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashTableTest.class);
+  }
+}
@@ -145,6 +145,44 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         checkJoinEstimateCosts(jo, equalsJoinNode);
     }
 
+    /**
+     * A block nested-loop join reads the inner side once per block of outer
+     * tuples, and the blocks of an earlier join's result hold fewer tuples
+     * than those of a base table.
+     */
+    @Test
+    public void blockNestedLoopJoinCost() {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId1, "t1");
+        lp.addScan(tableId2, "t2");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+
+        int tupleSize = f1.getTupleDesc().getSize();
+        int card1 = 10000, card2 = 500;
+        double cost1 = 100, cost2 = 10;
+        double blocks = Math.ceil((double) card1
+                / Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, tupleSize));
+        Assert.assertTrue(blocks > 1);
+        Assert.assertEquals(cost1 + blocks * cost2 + (double) card1 * card2,
+                jo.estimateJoinCost(j, card1, card2, cost1, cost2), 0.001);
+
+        // the outer side is t1 joined with t2, whose tuples hold both
+        Vector<LogicalJoinNode> plan = new Vector<LogicalJoinNode>();
+        plan.add(j);
+        int joinedSize = tupleSize + f2.getTupleDesc().getSize();
+        Assert.assertEquals(tupleSize,
+                jo.outerTupleSize(new Vector<LogicalJoinNode>(), "t1"));
+        Assert.assertEquals(joinedSize, jo.outerTupleSize(plan, "t1"));
+        double joinedBlocks = Math.ceil((double) card1
+                / Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, joinedSize));
+        Assert.assertTrue(joinedBlocks > blocks);
+        Assert.assertEquals(cost1 + joinedBlocks * cost2 + (double) card1 * card2,
+                jo.estimateJoinCost(j, card1, card2, cost1, cost2,
+                        jo.outerTupleSize(plan, "t1"), false), 0.001);
+    }
+
     private void checkJoinEstimateCosts(JoinOptimizer jo,
             LogicalJoinNode equalsJoinNode) {
         int card1s[] = new int[20];
@@ -105,6 +105,34 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for a Join whose outer relation spans several blocks: the
+   * inner relation is scanned once per block and every match is found.
+   */
+  @Test public void blockJoin() throws Exception {
+    final int[] rewinds = new int[1];
+    OpIterator inner = new TestUtil.MockScan(0, 100, 2) {
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+    // 512 outer tuples of 8 bytes fill a page
+    int perBlock = Join.blockTuples(1, Utility.getTupleDesc(2).getSize());
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        new TestUtil.MockScan(0, 10 * perBlock, 2), inner, 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue() < ((IntField) t.getField(2)).getValue());
+      count++;
+    }
+    // outer tuple i pairs with the 99 - i inner tuples above it
+    assertEquals(99 * 100 / 2, count);
+    assertEquals(9, rewinds[0]);
+  }
+
   /**
    * JUnit suite target
    */
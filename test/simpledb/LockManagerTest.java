@@ -0,0 +1,181 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LockManagerTest {
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  private LockManager lm;
+  private PageId p0, p1;
+  private TransactionId tid1, tid2, tid3;
+
+  @Before public void setUp() {
+    lm = new LockManager();
+    p0 = new HeapPageId(1, 0);
+    p1 = new HeapPageId(1, 1);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+    tid3 = new TransactionId();
+  }
+
+  /** Acquires a lock in a new thread and appends tid to order once it is granted. */
+  private Thread acquire(TransactionId tid, Permissions perm,
+      List<TransactionId> order) {
+    return acquire(tid, p0, perm, order, null);
+  }
+
+  /**
+   * Acquires a lock in a new thread and appends tid to order once it is
+   * granted, or to aborted if the request is chosen as a deadlock victim.
+   */
+  private Thread acquire(final TransactionId tid, final PageId pid,
+      final Permissions perm, final List<TransactionId> order,
+      final List<TransactionId> aborted) {
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          lm.acquire(tid, pid, perm);
+          order.add(tid);
+        } catch (TransactionAbortedException e) {
+          if (aborted != null)
+            aborted.add(tid);
+        }
+      }
+    };
+    t.start();
+    return t;
+  }
+
+  /**
+   * A transaction holding the only shared lock upgrades it without waiting,
+   * and keeps holding the page until it releases it.
+   */
+  @Test public void upgradeSoleSharer() throws Exception {
+    lm.acquire(tid1, p0, Permissions.READ_ONLY);
+    lm.acquire(tid1, p0, Permissions.READ_WRITE);
+    assertTrue(lm.holdsExclusive(tid1, p0));
+
+    lm.release(tid1, p0);
+    assertFalse(lm.holdsLock(tid1, p0));
+  }
+
+  /**
+   * A reader arriving after a queued writer waits behind it instead of
+   * joining the readers that hold the page.
+   */
+  @Test public void queuedWriterIsNotStarved() throws Exception {
+    List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+    lm.acquire(tid1, p0, Permissions.READ_ONLY);
+
+    Thread writer = acquire(tid2, Permissions.READ_WRITE, order);
+    Thread.sleep(TIMEOUT);
+    Thread reader = acquire(tid3, Permissions.READ_ONLY, order);
+    Thread.sleep(TIMEOUT);
+    assertTrue(order.isEmpty());
+
+    lm.releaseAll(tid1);
+    writer.join(TIMEOUT);
+    Thread.sleep(TIMEOUT);
+    assertEquals(1, order.size());
+    assertEquals(tid2, order.get(0));
+
+    lm.releaseAll(tid2);
+    reader.join(TIMEOUT);
+    assertEquals(2, order.size());
+    assertEquals(tid3, order.get(1));
+  }
+
+  /**
+   * An upgrade waits for the other readers of the page, and goes ahead of
+   * writers that queued up before it.
+   */
+  @Test public void upgradeJumpsTheQueue() throws Exception {
+    List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+    lm.acquire(tid1, p0, Permissions.READ_ONLY);
+    lm.acquire(tid2, p0, Permissions.READ_ONLY);
+
+    Thread writer = acquire(tid3, Permissions.READ_WRITE, order);
+    Thread.sleep(TIMEOUT);
+    Thread upgrade = acquire(tid1, Permissions.READ_WRITE, order);
+    Thread.sleep(TIMEOUT);
+    assertTrue(order.isEmpty());
+
+    lm.releaseAll(tid2);
+    upgrade.join(TIMEOUT);
+    assertEquals(1, order.size());
+    assertEquals(tid1, order.get(0));
+    assertTrue(lm.holdsExclusive(tid1, p0));
+
+    lm.releaseAll(tid1);
+    writer.join(TIMEOUT);
+    assertEquals(2, order.size());
+    assertEquals(tid3, order.get(1));
+  }
+
+  /**
+   * Closing a cycle aborts the youngest transaction in it at once, even when
+   * the request closing the cycle comes from an older transaction.
+   */
+  @Test public void deadlockAbortsYoungest() throws Exception {
+    List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+    List<TransactionId> aborted = Collections.synchronizedList(new ArrayList<TransactionId>());
+    lm.acquire(tid1, p0, Permissions.READ_WRITE);
+    lm.acquire(tid2, p1, Permissions.READ_WRITE);
+
+    // tid2 is younger than tid1 and starts waiting first
+    Thread young = acquire(tid2, p0, Permissions.READ_WRITE, order, aborted);
+    Thread.sleep(TIMEOUT);
+    assertTrue(aborted.isEmpty());
+    Thread old = acquire(tid1, p1, Permissions.READ_WRITE, order, aborted);
+    young.join(TIMEOUT);
+    assertEquals(1, aborted.size());
+    assertEquals(tid2, aborted.get(0));
+    assertTrue(order.isEmpty());
+
+    lm.releaseAll(tid2);
+    old.join(TIMEOUT);
+    assertEquals(1, order.size());
+    assertEquals(tid1, order.get(0));
+  }
+
+  /**
+   * Two readers upgrading the same page deadlock; the younger one fails and
+   * the older one gets the page.
+   */
+  @Test public void upgradeDeadlock() throws Exception {
+    List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+    List<TransactionId> aborted = Collections.synchronizedList(new ArrayList<TransactionId>());
+    lm.acquire(tid1, p0, Permissions.READ_ONLY);
+    lm.acquire(tid2, p0, Permissions.READ_ONLY);
+
+    Thread t1 = acquire(tid1, p0, Permissions.READ_WRITE, order, aborted);
+    Thread.sleep(TIMEOUT);
+    Thread t2 = acquire(tid2, p0, Permissions.READ_WRITE, order, aborted);
+    t2.join(TIMEOUT);
+    assertEquals(1, aborted.size());
+    assertEquals(tid2, aborted.get(0));
+
+    lm.releaseAll(tid2);
+    t1.join(TIMEOUT);
+    assertEquals(1, order.size());
+    assertEquals(tid1, order.get(0));
+    assertFalse(lm.holdsLock(tid2, p0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LockManagerTest.class);
+  }
+}
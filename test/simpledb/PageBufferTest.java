@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageBufferTest extends SimpleDbTestBase {
+  private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "ba", "B" };
+
+  private TupleDesc td;
+  private PageBuffer buffer;
+
+  /**
+   * Lays out one (int, string) tuple per entry of STRINGS after a header of
+   * three bytes, as a HeapPage would.
+   */
+  @Before public void setUp() throws Exception {
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.write(new byte[3]);
+    for (int i = 0; i < STRINGS.length; i++) {
+      new IntField(i * 7 - 10).serialize(dos);
+      new StringField(STRINGS[i], Type.STRING_LEN).serialize(dos);
+    }
+    buffer = new PageBuffer(ByteBuffer.wrap(baos.toByteArray()), td, 3);
+  }
+
+  /**
+   * Unit test for PageBuffer.getInt() and PageBuffer.getField()
+   */
+  @Test public void getFields() {
+    for (int i = 0; i < STRINGS.length; i++) {
+      assertEquals(i * 7 - 10, buffer.getInt(i, 0));
+      assertEquals(new IntField(i * 7 - 10), buffer.getField(i, 0));
+      assertEquals(new StringField(STRINGS[i], Type.STRING_LEN), buffer.getField(i, 1));
+    }
+  }
+
+  /**
+   * Unit test for PageBuffer.compareString(): it orders strings as
+   * StringField does.
+   */
+  @Test public void compareString() {
+    for (int i = 0; i < STRINGS.length; i++) {
+      for (String s : STRINGS) {
+        int expected = Integer.signum(STRINGS[i].compareTo(s));
+        assertEquals(expected, Integer.signum(buffer.compareString(i, 1, s.getBytes())));
+      }
+    }
+  }
+
+  /**
+   * Predicates give the same answers on tuples read in place as on decoded
+   * ones, and reading in place decodes nothing.
+   */
+  @Test public void filterInPlace() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = 0; i < STRINGS.length; i++) {
+        Predicate strings = new Predicate(1, op, new StringField("ab", Type.STRING_LEN));
+        Predicate ints = new Predicate(0, op, new IntField(4));
+        Tuple inPlace = new Tuple(td, buffer, i);
+        Tuple decoded = new Tuple(td);
+        decoded.setField(0, buffer.getField(i, 0));
+        decoded.setField(1, buffer.getField(i, 1));
+
+        assertEquals(strings.filter(decoded), strings.filter(inPlace));
+        assertEquals(ints.filter(decoded), ints.filter(inPlace));
+        assertEquals(op == Predicate.Op.LIKE, !inPlace.isEncoded(1));
+        assertTrue(inPlace.isEncoded(0));
+      }
+    }
+    assertFalse(new Predicate(1, Predicate.Op.EQUALS,
+        new StringField("b", Type.STRING_LEN)).filter(new Tuple(td, buffer, 6)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageBufferTest.class);
+  }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int FRAMES = 8;
+
+    /**
+     * Drives a policy the way BufferPool does: requests are hits if the page
+     * is resident, otherwise the page goes to a free frame or replaces the
+     * victim chosen by the policy.
+     */
+    private static class Pool {
+        final ReplacementPolicy policy;
+        final HashMap<PageId, Integer> frames = new HashMap<PageId, Integer>();
+        final PageId[] pages = new PageId[FRAMES];
+
+        Pool(ReplacementPolicy policy) {
+            this.policy = policy;
+            policy.init(FRAMES);
+        }
+
+        void request(int pageno) {
+            PageId pid = new HeapPageId(1, pageno);
+            Integer frame = frames.get(pid);
+            if (frame != null) {
+                policy.accessed(frame);
+                return;
+            }
+            if (frames.size() < FRAMES) {
+                frame = frames.size();
+            } else {
+                frame = policy.victim();
+                assertTrue(frame != ReplacementPolicy.NO_FRAME);
+                policy.removed(frame);
+                frames.remove(pages[frame]);
+            }
+            pages[frame] = pid;
+            frames.put(pid, frame);
+            policy.loaded(frame, pid);
+        }
+
+        boolean resident(int pageno) {
+            return frames.containsKey(new HeapPageId(1, pageno));
+        }
+    }
+
+    /** Requests the hot pages 0..2 a few times, then scans 100 cold pages. */
+    private static Pool hotPagesThenScan(ReplacementPolicy policy) {
+        Pool pool = new Pool(policy);
+        for (int round = 0; round < 3; round++)
+            for (int hot = 0; hot < 3; hot++)
+                pool.request(hot);
+        for (int cold = 100; cold < 200; cold++)
+            pool.request(cold);
+        return pool;
+    }
+
+    @Test public void emptyPoolHasNoVictim() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new ClockPolicy(),
+                new LruKPolicy(), new TwoQPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            policy.init(FRAMES);
+            assertEquals(ReplacementPolicy.NO_FRAME, policy.victim());
+        }
+    }
+
+    @Test public void setAsideFrameKeepsItsPlace() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new LruKPolicy(),
+                new TwoQPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            policy.init(FRAMES);
+            for (int i = 0; i < FRAMES; i++)
+                policy.loaded(i, new HeapPageId(1, i));
+            policy.setAside(0);
+            assertEquals(1, policy.victim());
+            policy.restored(0);
+            // 2Q must not take the frame for a ghost hit and promote it
+            assertEquals(policy.getClass().getName(), 0, policy.victim());
+        }
+    }
+
+    @Test public void everyFrameSetAsideHasNoVictim() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new ClockPolicy(),
+                new LruKPolicy(), new TwoQPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            policy.init(FRAMES);
+            for (int i = 0; i < FRAMES; i++) {
+                policy.loaded(i, new HeapPageId(1, i));
+                policy.setAside(i);
+            }
+            assertEquals(ReplacementPolicy.NO_FRAME, policy.victim());
+        }
+    }
+
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        Pool pool = new Pool(new LruPolicy());
+        for (int i = 0; i < FRAMES; i++)
+            pool.request(i);
+        pool.request(0);
+        pool.request(FRAMES);
+        assertTrue(pool.resident(0));
+        assertFalse(pool.resident(1));
+    }
+
+    @Test public void lruIsNotScanResistant() {
+        Pool pool = hotPagesThenScan(new LruPolicy());
+        for (int hot = 0; hot < 3; hot++)
+            assertFalse(pool.resident(hot));
+    }
+
+    @Test public void clockGivesReferencedPagesASecondChance() {
+        Pool pool = new Pool(new ClockPolicy());
+        for (int i = 0; i < FRAMES; i++)
+            pool.request(i);
+        // the first miss clears every reference bit and evicts page 0
+        pool.request(FRAMES);
+        assertFalse(pool.resident(0));
+        pool.request(1);
+        pool.request(FRAMES + 1);
+        assertTrue(pool.resident(1));
+        assertFalse(pool.resident(2));
+    }
+
+    @Test public void lruKIsScanResistant() {
+        Pool pool = hotPagesThenScan(new LruKPolicy());
+        for (int hot = 0; hot < 3; hot++)
+            assertTrue(pool.resident(hot));
+    }
+
+    @Test public void twoQIsScanResistant() {
+        Pool pool = new Pool(new TwoQPolicy());
+        for (int hot = 0; hot < 3; hot++)
+            pool.request(hot);
+        // push the hot pages out of A1in into the ghost queue, then request
+        // them again so that they are promoted to Am
+        for (int cold = 100; cold < 108; cold++)
+            pool.request(cold);
+        for (int hot = 0; hot < 3; hot++)
+            pool.request(hot);
+        for (int cold = 200; cold < 300; cold++)
+            pool.request(cold);
+        for (int hot = 0; hot < 3; hot++)
+            assertTrue(pool.resident(hot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
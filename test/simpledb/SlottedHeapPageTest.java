@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile hf = new SlottedHeapFile(File.createTempFile("slotted", "dat"), td);
+        hf.getFile().deleteOnExit();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the number of tuples a HeapPage of the table holds */
+    private int heapPageTuples() {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Tuples of short strings are packed: the page holds far more of them
+     * than a HeapPage, and reads back what was written.
+     */
+    @Test public void fillAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n)))
+            page.insertTuple(tuple(n++));
+        assertTrue(n > 3 * heapPageTuples());
+        assertTrue(page.getFreeSpace() >= 0);
+        try {
+            page.insertTuple(tuple(n));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(tuple(i).getField(0), t.getField(0));
+            assertEquals(tuple(i).getField(1), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted tuples free their bytes, leave the other tuples' RecordIds
+     * alone, and their slots are reused.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] ts = new Tuple[4];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = tuple(i);
+            page.insertTuple(ts[i]);
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(ts[1]);
+        assertTrue(page.getFreeSpace() > free);
+        try {
+            page.deleteTuple(ts[1]);
+            fail("tuple was deleted already");
+        } catch (DbException e) {
+            // expected
+        }
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        int count = 0;
+        for (Iterator<Tuple> it = read.iterator(); it.hasNext(); count++) {
+            Tuple t = it.next();
+            assertEquals(((IntField) t.getField(0)).getValue(), t.getRecordId().getTupleNumber());
+        }
+        assertEquals(3, count);
+
+        Tuple t = tuple(9);
+        read.insertTuple(t);
+        assertEquals(1, t.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * A SlottedHeapFile fills pages through the BufferPool and scans back
+     * every tuple, and its before images round-trip.
+     */
+    @Test public void fileInsertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        int n = 2000;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() * 3 * heapPageTuples() < n);
+
+        SlottedHeapPage page = (SlottedHeapPage) hf.readPage(pid);
+        assertEquals(page.getPageData().length, page.getBeforeImage().getPageData().length);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[i]);
+            seen[i] = true;
+            assertEquals(tuple(i).getField(1), t.getField(1));
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * A page that has no room for a long tuple stays in the free-space map,
+     * so that a short tuple inserted next still goes to it.
+     */
+    @Test public void shortTupleFillsPageThatRefusedLongOne() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Tuple longTuple = new Tuple(td);
+        longTuple.setField(0, new IntField(-1));
+        longTuple.setField(1, new StringField(String.format("%0" + Type.STRING_LEN + "d", 0),
+                Type.STRING_LEN));
+
+        // fill the first page until the long tuple no longer fits on it
+        int n = 0;
+        while (((SlottedHeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY)).hasRoomFor(longTuple))
+            pool.insertTuple(tid, hf.getId(), tuple(n++));
+        pool.insertTuple(tid, hf.getId(), longTuple);
+        assertEquals(1, longTuple.getRecordId().getPageId().getPageNumber());
+
+        Tuple t = tuple(n);
+        pool.insertTuple(tid, hf.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  // both sorted on the first field, with runs of duplicate keys on each side
+  // and keys only one side has
+  static final int[] LEFT = { 1, 10,
+                              2, 11,
+                              2, 12,
+                              4, 13,
+                              5, 14,
+                              5, 15,
+                              5, 16,
+                              9, 17 };
+  static final int[] RIGHT = { 0, 20,
+                               2, 21,
+                               2, 22,
+                               3, 23,
+                               5, 24,
+                               5, 25,
+                               8, 26 };
+
+  /** Checks SortMergeJoin on op returns what a nested loops join does. */
+  private void assertJoins(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    TestUtil.assertJoinsLikeNestedLoops(new SortMergeJoin(pred,
+        TestUtil.createTupleList(2, LEFT), TestUtil.createTupleList(2, RIGHT)),
+        pred, TestUtil.createTupleList(2, LEFT), TestUtil.createTupleList(2, RIGHT));
+  }
+
+  /**
+   * Unit test for SortMergeJoin with an equality predicate
+   */
+  @Test public void equality() throws Exception {
+    assertJoins(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Unit test for SortMergeJoin with band predicates
+   */
+  @Test public void band() throws Exception {
+    assertJoins(Predicate.Op.LESS_THAN);
+    assertJoins(Predicate.Op.LESS_THAN_OR_EQ);
+    assertJoins(Predicate.Op.GREATER_THAN);
+    assertJoins(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.sortedOn()
+   */
+  @Test public void sortedOn() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2, LEFT);
+    assertEquals(-1, SortMergeJoin.sortedOn(scan));
+    assertEquals(1, SortMergeJoin.sortedOn(new OrderBy(1, true, scan)));
+    assertEquals(-1, SortMergeJoin.sortedOn(new OrderBy(1, false, scan)));
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1));
+    assertEquals(1, SortMergeJoin.sortedOn(new Filter(p, new OrderBy(1, true, scan))));
+  }
+
+  /**
+   * Scans of a B+ tree return its tuples sorted on its key, so the optimizer
+   * merges two of them on it.
+   */
+  @Test public void btreeScans() throws Exception {
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 2000, 300, null, null, 0);
+    // name the fields so that the join node can refer to them
+    BTreeFile named = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "f"));
+    Database.getCatalog().addTable(named, "sorted");
+    TransactionId tid = new TransactionId();
+
+    assertEquals(0, SortMergeJoin.sortedOn(new SeqScan(tid, named.getId(), "a")));
+    assertEquals(1, SortMergeJoin.sortedOn(new SeqScan(tid, named.getId(), "a", new int[] { 1, 0 })));
+    assertEquals(-1, SortMergeJoin.sortedOn(new SeqScan(tid, named.getId(), "a", new int[] { 1 })));
+    assertEquals(0, SortMergeJoin.sortedOn(new BTreeScan(tid, named.getId(), "b", null)));
+
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.EQUALS);
+    OpIterator join = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, named.getId(), "a"),
+        new BTreeScan(tid, named.getId(), "b", null));
+    assertTrue(join instanceof SortMergeJoin);
+    TestUtil.assertJoinsLikeNestedLoops(join, ((SortMergeJoin) join).getJoinPredicate(),
+        new SeqScan(tid, named.getId(), "a"), new BTreeScan(tid, named.getId(), "b", null));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
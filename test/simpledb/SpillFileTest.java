@@ -0,0 +1,56 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SpillFileTest extends SimpleDbTestBase {
+
+  /**
+   * Tuples are read back in the order they were added, as often as needed.
+   */
+  @Test public void readBack() throws Exception {
+    SpillFile file = new SpillFile(Utility.getTupleDesc(2));
+    for (int i = 0; i < 10; i++)
+      file.add(Utility.getHeapTuple(i, 2));
+    assertEquals(10, file.size());
+    for (int pass = 0; pass < 2; pass++) {
+      SpillFile.Reader reader = file.read();
+      for (int i = 0; i < 10; i++)
+        assertEquals(new IntField(i), reader.next().getField(0));
+      assertEquals(null, reader.next());
+    }
+    file.delete();
+  }
+
+  /**
+   * Deleting the file closes the readers that stopped halfway through it.
+   */
+  @Test public void deleteClosesReaders() throws Exception {
+    SpillFile file = new SpillFile(Utility.getTupleDesc(2));
+    for (int i = 0; i < 10; i++)
+      file.add(Utility.getHeapTuple(i, 2));
+    SpillFile.Reader reader = file.read();
+    reader.next();
+    file.delete();
+    try {
+      reader.next();
+      fail("the reader should have been closed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillFileTest.class);
+  }
+}
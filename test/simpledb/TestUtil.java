@@ -166,6 +166,45 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens op, reads it to the end, rewinds it, checks it returns the same
+     * tuples again, and closes it.
+     *
+     * @return the tuples op returns, as strings, sorted
+     */
+    public static ArrayList<String> drain(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        op.open();
+        ArrayList<String> result = readSorted(op);
+        op.rewind();
+        assertEquals(result, readSorted(op));
+        op.close();
+        return result;
+    }
+
+    private static ArrayList<String> readSorted(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        while (op.hasNext())
+            result.add(op.next().toString());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Checks that join returns the same tuples, in any order, as a nested
+     * loops {@link Join} of child1 and child2 on pred does.
+     *
+     * @return the tuples both return, as for {@link #drain}
+     */
+    public static ArrayList<String> assertJoinsLikeNestedLoops(OpIterator join,
+            JoinPredicate pred, OpIterator child1, OpIterator child2)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> expected = drain(new Join(pred, child1, child2));
+        assertEquals(expected, drain(join));
+        return expected;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
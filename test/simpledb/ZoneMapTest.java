@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private File f;
+    private TupleDesc td;
+    private HeapFile hf;
+    private TransactionId tid;
+    // pages read from disk
+    private int reads;
+
+    /**
+     * Writes a table of two INT columns, the first of which counts up from 0
+     * so that every page holds a narrow range of it.
+     */
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("zones", "dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        td = Utility.getTupleDesc(2);
+        hf = open();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Adds a HeapFile over f that counts its page reads to the catalog. */
+    private HeapFile open() {
+        HeapFile file = new HeapFile(f, td) {
+            public Page readPage(PageId pid) {
+                reads++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    /** Drops the cached pages, so that scans read from disk again. */
+    private void coldCache() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        reads = 0;
+    }
+
+    /** @return the number of tuples that pass field 0 op value */
+    private int count(Predicate.Op op, int value) throws Exception {
+        Filter filter = new Filter(new Predicate(0, op, new IntField(value)),
+                new SeqScan(tid, hf.getId(), "t"));
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            count++;
+        }
+        filter.close();
+        return count;
+    }
+
+    /**
+     * mayMatch rules a page out only if no value in its range passes.
+     */
+    @Test public void mayMatch() throws Exception {
+        ZoneMap zones = ZoneMap.forFile(File.createTempFile("zones", "dat"), td);
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(10));
+        t.setField(1, new IntField(0));
+        zones.include(0, t);
+        t.setField(0, new IntField(20));
+        zones.include(0, t);
+
+        assertTrue(zones.mayMatch(0, 0, Predicate.Op.EQUALS, 15));
+        assertFalse(zones.mayMatch(0, 0, Predicate.Op.EQUALS, 21));
+        assertTrue(zones.mayMatch(0, 0, Predicate.Op.GREATER_THAN, 19));
+        assertFalse(zones.mayMatch(0, 0, Predicate.Op.GREATER_THAN, 20));
+        assertTrue(zones.mayMatch(0, 0, Predicate.Op.LESS_THAN_OR_EQ, 10));
+        assertFalse(zones.mayMatch(0, 0, Predicate.Op.LESS_THAN, 10));
+        assertTrue(zones.mayMatch(0, 0, Predicate.Op.NOT_EQUALS, 10));
+        assertFalse(zones.mayMatch(0, 1, Predicate.Op.NOT_EQUALS, 0));
+        // pages nothing is known about are never ruled out
+        assertTrue(zones.mayMatch(1, 0, Predicate.Op.EQUALS, 15));
+    }
+
+    /**
+     * A filtered scan of a table written by HeapFileEncoder reads only the
+     * pages whose range may hold matching tuples.
+     */
+    @Test public void skipsPages() throws Exception {
+        int perPage = ROWS / hf.numPages() + 1;
+        coldCache();
+        assertEquals(1, count(Predicate.Op.EQUALS, 1234));
+        assertEquals(1, reads);
+
+        coldCache();
+        assertEquals(100, count(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 100));
+        assertTrue(reads <= 100 / perPage + 2);
+
+        coldCache();
+        assertEquals(0, count(Predicate.Op.LESS_THAN, 0));
+        assertEquals(0, reads);
+
+        // predicates on a column every page spans read every page
+        coldCache();
+        assertEquals(ROWS, count(Predicate.Op.NOT_EQUALS, -1));
+        assertEquals(hf.numPages(), reads);
+    }
+
+    /**
+     * Inserts widen the range of their page, so a scan still finds a value
+     * far outside the range the page was written with.
+     */
+    @Test public void insertWidens() throws Exception {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-7));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(Predicate.Op.EQUALS, -7));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        // the widened range was written out, and is read back by a new file
+        hf = open();
+        coldCache();
+        assertEquals(1, count(Predicate.Op.EQUALS, -7));
+        assertTrue(reads < hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
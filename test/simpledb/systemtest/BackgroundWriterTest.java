@@ -0,0 +1,79 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private BufferPool bp;
+
+    @After public void tearDown() {
+        if (bp != null)
+            bp.setCleanFrameTarget(0);
+    }
+
+    /** Deletes one tuple from each of the first count pages of f. */
+    private void dirtyPages(HeapFile f, TransactionId tid, int count)
+            throws IOException, DbException, TransactionAbortedException {
+        for (int i = 0; i < count; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i),
+                    Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+    }
+
+    /** A pool full of dirty pages still serves misses once the writer cleans a frame. */
+    @Test public void testWriterCleansFullPool()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 4, null, null);
+        bp = Database.resetBufferPool(3);
+        bp.setCleanFrameTarget(1);
+
+        Transaction t = new Transaction();
+        t.start();
+        dirtyPages(f, t.getId(), 3);
+        bp.getPage(t.getId(), new HeapPageId(f.getId(), 3), Permissions.READ_ONLY);
+
+        // ABORT: the deletes the writer put on disk must be undone
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(TUPLES_PER_PAGE * 4, count);
+    }
+
+    /**
+     * Pages of a transaction that never logged its BEGIN cannot be rolled
+     * back from the log, so the writer leaves them alone.
+     */
+    @Test(expected=DbException.class) public void testWriterNeedsLoggedTransaction()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 4, null, null);
+        bp = Database.resetBufferPool(3);
+        bp.setCleanFrameTarget(1);
+
+        TransactionId tid = new TransactionId();
+        dirtyPages(f, tid, 3);
+        bp.getPage(tid, new HeapPageId(f.getId(), 3), Permissions.READ_ONLY);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
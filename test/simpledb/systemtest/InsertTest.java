@@ -68,6 +68,63 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    /**
+     * Bulk-loads source into destination, enough tuples for more than one
+     * batch of appended pages, then commits or aborts.
+     */
+    private void validateBulkInsert(boolean abort)
+            throws DbException, IOException, TransactionAbortedException {
+        int sourceRows = 504 * 64 + 100;
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(
+                2, sourceRows, null, sourceTuples);
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(
+                2, 10, null, destinationTuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        Insert insOp = new Insert(t.getId(), new SeqScan(t.getId(), source.getId(), ""),
+                destination.getId(), true);
+        int records = Database.getLogFile().getTotalRecords();
+        insOp.open();
+        assertEquals(sourceRows, ((IntField) insOp.next().getField(0)).getValue());
+        // one small record per run of appended pages, not one page image each
+        assertTrue(Database.getLogFile().getTotalRecords() - records <= 2);
+        assertFalse(insOp.hasNext());
+        insOp.close();
+
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>(destinationTuples);
+        all.addAll(sourceTuples);
+        SystemTestUtil.matchTuples(destination, t.getId(), all);
+
+        t.transactionComplete(abort);
+        // the load went to new pages past the end of the table
+        HeapPageId first = new HeapPageId(destination.getId(), 0);
+        assertEquals(504 - 10, ((HeapPage) destination.readPage(first)).getNumEmptySlots());
+        SystemTestUtil.matchTuples(destination, abort ? destinationTuples : all);
+
+        // a plain insert after the load goes to a page with room
+        TransactionId tid = new TransactionId();
+        Tuple tup = new Tuple(destination.getTupleDesc());
+        tup.setField(0, new IntField(1));
+        tup.setField(1, new IntField(2));
+        Database.getBufferPool().insertTuple(tid, destination.getId(), tup);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(((HeapPage) destination.readPage(tup.getRecordId().getPageId()))
+                .isSlotUsed(tup.getRecordId().getTupleNumber()));
+    }
+
+    @Test public void testBulkInsert()
+            throws IOException, DbException, TransactionAbortedException {
+        validateBulkInsert(false);
+    }
+
+    @Test public void testBulkInsertAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        validateBulkInsert(true);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);